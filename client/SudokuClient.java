@@ -13,9 +13,18 @@ import java.lang.reflect.Method;
 import java.net.URL;
 import java.lang.reflect.Proxy;
 import java.rmi.server.RMIClassLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SudokuClient {
-    private Remote game;
+    // Moves sent to the server without waiting for the earlier ones to come back
+    private static final int MOVES_IN_FLIGHT = Integer.getInteger("sudoku.client.movesInFlight", 4);
+
+    private volatile Remote game;
+    // Bumped for every new game so late replies for the previous one are ignored
+    private volatile int generation;
     private String clientId;
     private JFrame frame;
     private JLabel textLabel;
@@ -27,6 +36,33 @@ public class SudokuClient {
     private Remote callback;
     private boolean callbackExported = false;
     private boolean isCompletionDialogShown = false;
+    // The label is showing the slow-down notice instead of the error count
+    private boolean throttledShown = false;
+
+    // Resolved once per game in initializeGame instead of on every click
+    private Remote factory;
+    private Method removeMethod;
+    private Method moveMethod;
+    private Method isAcceptedMethod;
+    private Method isThrottledMethod;
+    private Method isSolvedMethod;
+    private Method getErrorsMethod;
+
+    // Tile state, only touched on the event-dispatch thread
+    private JButton[] tiles;
+    private String[] confirmed;
+    private int[] moveSeq;
+    private boolean[] settled;
+
+    private final ExecutorService moves = Executors.newFixedThreadPool(MOVES_IN_FLIGHT, new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "move-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     public SudokuClient(String serverIP) {
         this.serverIP = serverIP;
@@ -38,7 +74,10 @@ public class SudokuClient {
         
         try {
             System.setProperty("java.security.policy", "client.policy");
-            System.setProperty("java.rmi.server.codebase", "http://"+serverIP+"/classes/");
+            // Same port as the server's -Dsudoku.codebase.port when it serves its own classes
+            Integer codebasePort = Integer.getInteger("sudoku.codebase.port");
+            System.setProperty("java.rmi.server.codebase", "http://" + serverIP
+                + (codebasePort == null ? "" : ":" + codebasePort) + "/classes/");
             
             // Verify HTTP server accessibility
             System.out.println("Testing codebase accessibility...");
@@ -81,8 +120,15 @@ public class SudokuClient {
             frame = new JFrame("Sudoku - " + clientId);
             frame.setSize(600, 650);
             frame.setResizable(false);
-            frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+            // quit() exits once the server has been told, off the event-dispatch thread
+            frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
             frame.setLocationRelativeTo(null);
+            frame.addWindowListener(new java.awt.event.WindowAdapter() {
+                @Override
+                public void windowClosing(java.awt.event.WindowEvent windowEvent) {
+                    quit();
+                }
+            });
         }
     
         frame.setLayout(new BorderLayout());
@@ -107,19 +153,17 @@ public class SudokuClient {
         frame.add(buttonsPanel, BorderLayout.SOUTH);
     
         frame.setVisible(true);
-        frame.addWindowListener(new java.awt.event.WindowAdapter() {
-            @Override
-            public void windowClosing(java.awt.event.WindowEvent windowEvent) {
-                cleanup();
-                System.exit(0);
-            }
-        });
     }
     
     private void setupTiles(String[] puzzle) {
         boardPanel.removeAll();
+        tiles = new JButton[81];
+        confirmed = new String[81];
+        moveSeq = new int[81];
+        settled = new boolean[81];
         for (int r = 0; r < 9; r++) {
             for (int c = 0; c < 9; c++) {
+                final int cell = r * 9 + c;
                 JButton tile = new JButton();
                 char tileChar = puzzle[r].charAt(c);
                 if (tileChar != '-') {
@@ -130,41 +174,17 @@ public class SudokuClient {
                     tile.setFont(new Font("Arial", Font.PLAIN, 20));
                     tile.setBackground(Color.white);
                 }
+                tile.setForeground(Color.black);
                 tile.setFocusable(false);
                 boardPanel.add(tile);
+                tiles[cell] = tile;
+                confirmed[cell] = tile.getText();
+                settled[cell] = true;
 
                 tile.addActionListener(new ActionListener() {
                     public void actionPerformed(ActionEvent e) {
                         if (numSelected != null) {
-                            JButton tile = (JButton) e.getSource();
-                            int row = boardPanel.getComponentZOrder(tile) / 9;
-                            int col = boardPanel.getComponentZOrder(tile) % 9;
-                            int number = Integer.parseInt(numSelected.getText());
-                            try {
-                                Class<?> gameInterface = RMIClassLoader.loadClass(
-                                    System.getProperty("java.rmi.server.codebase"), 
-                                    "SudokuInterface");
-                                boolean validMove = (boolean) gameInterface
-                                    .getMethod("makeMove", int.class, int.class, int.class)
-                                    .invoke(game, row, col, number);
-                                
-                                if (validMove) {
-                                    tile.setText(String.valueOf(number));
-                                    boolean solved = (boolean) gameInterface
-                                        .getMethod("isSolved")
-                                        .invoke(game);
-                                    if (solved) {
-                                        Method notifyCompletion = callback.getClass()
-                                            .getMethod("notifyCompletion");
-                                        notifyCompletion.invoke(callback);
-                                    }
-                                } else {
-                                    errors++;
-                                    textLabel.setText("Sudoku: " + errors);
-                                }
-                            } catch (Exception ex) {
-                                ex.printStackTrace();
-                            }
+                            submitMove(cell, Integer.parseInt(numSelected.getText()));
                         }
                     }
                 });
@@ -174,6 +194,74 @@ public class SudokuClient {
         boardPanel.repaint();
     }
 
+    // Shows the digit right away, greyed out, and sends the move from a pool thread;
+    // moveDone confirms it or puts the last confirmed digit back
+    private void submitMove(final int cell, final int number) {
+        final Remote target = game;
+        final int gen = generation;
+        final int seq = ++moveSeq[cell];
+        settled[cell] = false;
+        tiles[cell].setText(String.valueOf(number));
+        tiles[cell].setForeground(Color.gray);
+        moves.execute(new Runnable() {
+            public void run() {
+                boolean accepted = false;
+                boolean throttled = false;
+                boolean solved = false;
+                int errorCount = -1;
+                try {
+                    // One round trip returns the verdict, the error count and the solved flag
+                    Object result = moveMethod.invoke(target, cell / 9, cell % 9, number);
+                    accepted = (boolean) isAcceptedMethod.invoke(result, 0);
+                    throttled = (boolean) isThrottledMethod.invoke(result, 0);
+                    solved = (boolean) isSolvedMethod.invoke(result);
+                    errorCount = (int) getErrorsMethod.invoke(result);
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+                final boolean ok = accepted;
+                final boolean slowDown = throttled;
+                final boolean done = solved;
+                final int count = errorCount;
+                SwingUtilities.invokeLater(new Runnable() {
+                    public void run() {
+                        moveDone(gen, cell, seq, number, ok, slowDown, count, done);
+                    }
+                });
+            }
+        });
+    }
+
+    // Replies can come back out of order, so a tile only settles once its latest move has been
+    // answered. A throttled move was never checked, so the tile goes back without counting an error.
+    private void moveDone(int gen, int cell, int seq, int number, boolean accepted, boolean throttled,
+                          int errorCount, boolean solved) {
+        if (gen != generation || tiles == null) {
+            return;
+        }
+        if (throttled) {
+            throttledShown = true;
+            textLabel.setText("Too many moves, slow down");
+        } else if (errorCount > errors || throttledShown) {
+            errors = Math.max(errors, errorCount);
+            throttledShown = false;
+            textLabel.setText("Sudoku: " + errors);
+        }
+        if (accepted) {
+            confirmed[cell] = String.valueOf(number);
+        }
+        if (seq == moveSeq[cell]) {
+            settled[cell] = true;
+        }
+        if (settled[cell]) {
+            tiles[cell].setText(confirmed[cell]);
+            tiles[cell].setForeground(Color.black);
+        }
+        if (solved) {
+            showCompletion();
+        }
+    }
+
     private void setupButtons() {
         for (int i = 1; i < 10; i++) {
             JButton button = new JButton();
@@ -198,12 +286,19 @@ public class SudokuClient {
     private void initializeGame() throws Exception {
         try {
             // Load interfaces
-            Class<?> fabInterface = RMIClassLoader.loadClass(
-                System.getProperty("java.rmi.server.codebase"), 
-                "FabSudokuInterface");
+            String codebase = System.getProperty("java.rmi.server.codebase");
+            Class<?> fabInterface = RMIClassLoader.loadClass(codebase, "FabSudokuInterface");
+            Class<?> gameInterface = RMIClassLoader.loadClass(codebase, "SudokuInterface");
+            Class<?> resultClass = RMIClassLoader.loadClass(codebase, "MoveResult");
+            moveMethod = gameInterface.getMethod("move", int.class, int.class, int.class);
+            isAcceptedMethod = resultClass.getMethod("isAccepted", int.class);
+            isThrottledMethod = resultClass.getMethod("isThrottled", int.class);
+            isSolvedMethod = resultClass.getMethod("isSolved");
+            getErrorsMethod = resultClass.getMethod("getErrors");
+            removeMethod = fabInterface.getMethod("removeClient", String.class);
             
             Registry registry = LocateRegistry.getRegistry(serverIP, 1099);
-            Remote factory = registry.lookup("SudokuFactory");
+            factory = registry.lookup("SudokuFactory");
             
             // Add retry logic
             int retries = 3;
@@ -245,16 +340,17 @@ public class SudokuClient {
             callbackExported = true;
             
             // Register callback
-            Class<?> gameInterface = RMIClassLoader.loadClass(
-                System.getProperty("java.rmi.server.codebase"), 
-                "SudokuInterface");
-            
             Method registerMethod = gameInterface.getMethod("registerCallback", callbackInterface);
             registerMethod.invoke(game, callbackImpl);
             
             // Initialize GUI
-            String[] puzzle = (String[]) gameInterface.getMethod("getPuzzle").invoke(game);
-            initializeGUI(puzzle);
+            final String[] puzzle = (String[]) gameInterface.getMethod("getPuzzle").invoke(game);
+            generation++;
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    initializeGUI(puzzle);
+                }
+            });
         } catch (Exception e) {
             cleanup();
             throw e;
@@ -272,27 +368,9 @@ public class SudokuClient {
                 });
             } 
             else if ("notifyCompletion".equals(method.getName())) {
-                if (isCompletionDialogShown) return null;
-                isCompletionDialogShown = true;
                 SwingUtilities.invokeLater(new Runnable() {
                     public void run() {
-                        int choice = JOptionPane.showConfirmDialog(frame, 
-                            "Congratulations! You solved the puzzle!\nDo you want to play again?", 
-                            "Game Over", JOptionPane.YES_NO_OPTION);
-                        if (choice == JOptionPane.YES_OPTION) {
-                            new SwingWorker<Void, Void>() {
-                                protected Void doInBackground() throws Exception {
-                                    resetGameWithNewPuzzle();
-                                    return null;
-                                }
-                                protected void done() {
-                                    isCompletionDialogShown = false;
-                                }
-                            }.execute();
-                        } else {
-                            cleanup();
-                            System.exit(0);
-                        }
+                        showCompletion();
                     }
                 });
             }
@@ -300,16 +378,47 @@ public class SudokuClient {
         }
     }
 
-    private void cleanup() {
+    // Reached from both the move reply and the server's callback; runs on the event-dispatch thread
+    private void showCompletion() {
+        if (isCompletionDialogShown) return;
+        isCompletionDialogShown = true;
+        int choice = JOptionPane.showConfirmDialog(frame, 
+            "Congratulations! You solved the puzzle!\nDo you want to play again?", 
+            "Game Over", JOptionPane.YES_NO_OPTION);
+        if (choice == JOptionPane.YES_OPTION) {
+            new SwingWorker<Void, Void>() {
+                protected Void doInBackground() throws Exception {
+                    resetGameWithNewPuzzle();
+                    return null;
+                }
+                protected void done() {
+                    isCompletionDialogShown = false;
+                }
+            }.execute();
+        } else {
+            quit();
+        }
+    }
+
+    // Called on the event-dispatch thread; removeClient is a network call, so it runs in the background
+    private void quit() {
+        frame.setVisible(false);
+        new SwingWorker<Void, Void>() {
+            protected Void doInBackground() {
+                cleanup();
+                return null;
+            }
+            protected void done() {
+                System.exit(0);
+            }
+        }.execute();
+    }
+
+    // Also run by the shutdown hook, so it may race with quit() or a reset
+    private synchronized void cleanup() {
         try {
             // Unregister from server
-            if (game != null && clientId != null) {
-                Class<?> fabInterface = RMIClassLoader.loadClass(
-                    System.getProperty("java.rmi.server.codebase"), 
-                    "FabSudokuInterface");
-                Registry registry = LocateRegistry.getRegistry(serverIP, 1099);
-                Remote factory = registry.lookup("SudokuFactory");
-                Method removeMethod = fabInterface.getMethod("removeClient", String.class);
+            if (game != null && clientId != null && factory != null) {
                 removeMethod.invoke(factory, clientId);
             }
         } catch (Exception e) {
@@ -336,10 +445,12 @@ public class SudokuClient {
     private void resetGameWithNewPuzzle() {
         try {
             cleanup();
-            errors = 0;
-            if (textLabel != null) {
-                textLabel.setText("Sudoku: " + errors);
-            }
+            SwingUtilities.invokeLater(new Runnable() {
+                public void run() {
+                    errors = 0;
+                    throttledShown = false;
+                }
+            });
             initializeGame();
             if (boardPanel != null) {
                 SwingUtilities.invokeLater(new Runnable() {
@@ -366,11 +477,7 @@ public class SudokuClient {
             System.err.println("Usage: java SudokuClient <server-ip>");
             System.exit(1);
         }
-         final String[] finalArgs = args;
-        SwingUtilities.invokeLater(new Runnable() {
-            public void run() {
-                new SudokuClient(finalArgs[0]);
-            }
-        });
+        // Connecting happens on the main thread; the window is built on the event-dispatch thread
+        new SudokuClient(args[0]);
     }
 }
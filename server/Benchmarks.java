@@ -0,0 +1,390 @@
+import java.lang.management.ManagementFactory;
+import java.rmi.registry.*;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Microbenchmarks for the server hot paths, in-process and over loopback RMI.
+// Each benchmark is warmed up, then run for a fixed time on 1..n threads; allocation
+// per operation comes from the per-thread allocation counters of the JVM.
+//
+//   java -Dbench.threads=8 Benchmarks [name-regex]
+public class Benchmarks {
+    private static final long WARMUP_MILLIS = Long.getLong("bench.warmupMillis", 2000L);
+    private static final long MEASURE_MILLIS = Long.getLong("bench.measureMillis", 3000L);
+    private static final int THREADS = Integer.getInteger("bench.threads", Runtime.getRuntime().availableProcessors());
+    private static final int PORT = Integer.getInteger("bench.port", 1199);
+    private static final int NIO_PORT = Integer.getInteger("bench.nioPort", 1198);
+    private static final int PIPELINE = 64;
+
+    private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+        (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    interface Op {
+        void run(int thread, long iteration) throws Exception;
+    }
+
+    private final String filter;
+    private final CallbackDispatcher dispatcher = new CallbackDispatcher(1);
+
+    Benchmarks(String filter) {
+        this.filter = filter;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.rmi.server.hostname", "127.0.0.1");
+        // The benchmarks measure the move path itself, far above any client's rate limit
+        if (System.getProperty("sudoku.rate.movesPerSecond") == null) {
+            System.setProperty("sudoku.rate.movesPerSecond", "0");
+        }
+        if (System.getProperty("sudoku.rate.host.movesPerSecond") == null) {
+            System.setProperty("sudoku.rate.host.movesPerSecond", "0");
+        }
+        Benchmarks b = new Benchmarks(args.length > 0 ? args[0] : ".*");
+        System.out.printf("%-40s %7s %14s %12s %12s%n", "benchmark", "threads", "ops/s", "ns/op", "bytes/op");
+        b.inProcess();
+        b.loopback();
+        b.nio();
+        System.exit(0);
+    }
+
+    private void inProcess() throws Exception {
+        final Puzzle puzzle = PuzzleCatalog.shared().get(1);
+        final int given = firstGiven(puzzle);
+        final int row = given / Board.SIZE;
+        final int col = given % Board.SIZE;
+        final int digit = puzzle.solution()[given];
+        final int wrong = digit % 9 + 1;
+
+        final SudokuImpl game = new SudokuImpl("bench", puzzle, dispatcher);
+        // Replays a given, which is accepted without writing the board: the cost of the
+        // checks and the lock alone. The makeMove.fill benchmarks below write real cells.
+        Op accepted = new Op() {
+            public void run(int thread, long i) throws Exception {
+                game.makeMove(row, col, digit);
+            }
+        };
+        Op rejected = new Op() {
+            public void run(int thread, long i) throws Exception {
+                game.makeMove(row, col, wrong);
+            }
+        };
+        Op solved = new Op() {
+            public void run(int thread, long i) throws Exception {
+                game.isSolved();
+            }
+        };
+        Op board = new Op() {
+            public void run(int thread, long i) throws Exception {
+                game.getPuzzle();
+            }
+        };
+        run("makeMove.accepted", 1, accepted);
+        run("makeMove.accepted.contended", THREADS, accepted);
+        run("makeMove.rejected", 1, rejected);
+        run("isSolved", 1, solved);
+        run("isSolved.contended", THREADS, solved);
+        run("getPuzzle", 1, board);
+        run("getPuzzle.contended", THREADS, board);
+
+        // Each thread plays on its own game, so this measures scaling without shared locks
+        final SudokuImpl[] games = new SudokuImpl[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            games[t] = new SudokuImpl("bench-" + t, puzzle, dispatcher);
+        }
+        run("makeMove.separateGames", THREADS, new Op() {
+            public void run(int thread, long i) throws Exception {
+                games[thread].makeMove(row, col, digit);
+            }
+        });
+
+        final Fill<SudokuImpl> fill = soloFill(puzzle);
+        Op filling = new Op() {
+            public void run(int thread, long i) throws Exception {
+                fill.step(thread);
+            }
+        };
+        run("makeMove.fill", 1, filling);
+        run("makeMove.fill.contended", THREADS, filling);
+        final Fill<?>[] fills = new Fill<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            fills[t] = soloFill(puzzle);
+        }
+        run("makeMove.fill.separateGames", THREADS, new Op() {
+            public void run(int thread, long i) throws Exception {
+                fills[thread].step(thread);
+            }
+        });
+
+        // Every thread is its own player on one co-op board. The replayed given only reads
+        // the cell; coop.makeMove.fill.contended claims empty cells with a CAS and is the
+        // one to compare with makeMove.fill.contended.
+        CoopGame coop = new CoopGame("bench", puzzle);
+        final CoopGame.Seat[] seats = new CoopGame.Seat[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            seats[t] = coop.join("bench-coop-" + t, dispatcher);
+        }
+        run("coop.makeMove.accepted.contended", THREADS, new Op() {
+            public void run(int thread, long i) throws Exception {
+                seats[thread].makeMove(row, col, digit);
+            }
+        });
+        run("coop.makeMove.rejected.contended", THREADS, new Op() {
+            public void run(int thread, long i) throws Exception {
+                seats[thread].makeMove(row, col, wrong);
+            }
+        });
+        final Fill<CoopGame> coopFill = new Fill<CoopGame>(puzzle) {
+            // Each thread's seat, joined again whenever it reaches the next board
+            private final CoopGame.Seat[] at = new CoopGame.Seat[THREADS];
+
+            CoopGame open() {
+                return new CoopGame("bench-fill", puzzle());
+            }
+
+            void move(int thread, CoopGame board, int row, int col, int digit) throws Exception {
+                CoopGame.Seat seat = at[thread];
+                if (seat == null || seat.board() != board) {
+                    seat = board.join("bench-fill-" + thread, dispatcher);
+                    at[thread] = seat;
+                }
+                seat.makeMove(row, col, digit);
+            }
+        }.start();
+        run("coop.makeMove.fill.contended", THREADS, new Op() {
+            public void run(int thread, long i) throws Exception {
+                coopFill.step(thread);
+            }
+        });
+
+        final PuzzleCatalog catalog = PuzzleCatalog.shared();
+        Op select = new Op() {
+            public void run(int thread, long i) throws Exception {
+                catalog.random();
+            }
+        };
+        run("catalog.random", 1, select);
+        run("catalog.random.contended", THREADS, select);
+
+        final FabSudokuImpl factory = new FabSudokuImpl();
+        Op session = newSessionOp(factory, "local");
+        run("newSudoku+removeClient", 1, session);
+        run("newSudoku+removeClient.contended", THREADS, session);
+    }
+
+    private void loopback() throws Exception {
+        Registry registry = LocateRegistry.createRegistry(PORT);
+        registry.rebind("SudokuFactory", new FabSudokuImpl());
+        final FabSudokuInterface factory =
+            (FabSudokuInterface) LocateRegistry.getRegistry("127.0.0.1", PORT).lookup("SudokuFactory");
+
+        final SudokuInterface game = factory.newSudoku("bench-rmi");
+        final byte[] givens = Board.toBytes(game.getPuzzle());
+        final int given = firstGiven(new Puzzle(givens, givens, Difficulty.EASY));
+        final int row = given / Board.SIZE;
+        final int col = given % Board.SIZE;
+        final int digit = givens[given];
+        Op move = new Op() {
+            public void run(int thread, long i) throws Exception {
+                game.makeMove(row, col, digit);
+            }
+        };
+        Op board = new Op() {
+            public void run(int thread, long i) throws Exception {
+                game.getPuzzle();
+            }
+        };
+        run("rmi.makeMove", 1, move);
+        run("rmi.makeMove.contended", THREADS, move);
+        run("rmi.getPuzzle", 1, board);
+        run("rmi.getPuzzle.contended", THREADS, board);
+        run("rmi.isSolved", 1, new Op() {
+            public void run(int thread, long i) throws Exception {
+                game.isSolved();
+            }
+        });
+        Op session = newSessionOp(factory, "rmi");
+        run("rmi.newSudoku+removeClient", 1, session);
+        run("rmi.newSudoku+removeClient.contended", THREADS, session);
+    }
+
+    private void nio() throws Exception {
+        NioGameServer server = new NioGameServer(new FabSudokuImpl(), NIO_PORT);
+        server.start();
+        // One connection and game per thread; the client is not thread-safe
+        final NioGameClient[] clients = new NioGameClient[THREADS];
+        final int[] handles = new int[THREADS];
+        final int[][] moves = new int[THREADS][];
+        for (int t = 0; t < THREADS; t++) {
+            clients[t] = new NioGameClient("127.0.0.1", server.port());
+            handles[t] = clients[t].newGame("bench-nio-" + t, null);
+            byte[] cells = new byte[Board.CELLS];
+            BoardSync.apply(clients[t].getChangesSince(handles[t], -1), cells);
+            int given = firstGiven(new Puzzle(cells, cells, Difficulty.EASY));
+            moves[t] = new int[3 * PIPELINE];
+            for (int i = 0; i < PIPELINE; i++) {
+                moves[t][3 * i] = given / Board.SIZE;
+                moves[t][3 * i + 1] = given % Board.SIZE;
+                moves[t][3 * i + 2] = cells[given];
+            }
+        }
+        Op move = new Op() {
+            public void run(int thread, long i) throws Exception {
+                int[] m = moves[thread];
+                clients[thread].move(handles[thread], m[0], m[1], m[2]);
+            }
+        };
+        run("nio.makeMove", 1, move);
+        run("nio.makeMove.contended", THREADS, move);
+        Op pipelined = new Op() {
+            public void run(int thread, long i) throws Exception {
+                clients[thread].moves(handles[thread], moves[thread]);
+            }
+        };
+        run("nio.makeMoves.pipelined" + PIPELINE, 1, pipelined);
+        run("nio.makeMoves.pipelined" + PIPELINE + ".contended", THREADS, pipelined);
+        server.shutdown();
+    }
+
+    private static Op newSessionOp(final FabSudokuInterface factory, final String prefix) {
+        return new Op() {
+            public void run(int thread, long i) throws Exception {
+                String id = prefix + "-" + thread + "-" + i;
+                factory.newSudoku(id);
+                factory.removeClient(id);
+            }
+        };
+    }
+
+    private Fill<SudokuImpl> soloFill(Puzzle puzzle) throws Exception {
+        return new Fill<SudokuImpl>(puzzle) {
+            SudokuImpl open() {
+                return new SudokuImpl("bench-fill", puzzle(), dispatcher);
+            }
+
+            void move(int thread, SudokuImpl game, int row, int col, int digit) throws Exception {
+                game.makeMove(row, col, digit);
+            }
+        }.start();
+    }
+
+    // Plays the solution into the empty cells of a puzzle, so every move writes the board.
+    // Cells come from one counter however many threads step, and whoever takes the first
+    // cell of a game opens a game a few rounds ahead, so opening one costs the measured
+    // threads once per empty cells of the puzzle. A thread that falls ROUNDS games behind
+    // replays cells of a finished game instead, which is harmless for the measurement.
+    abstract static class Fill<G> {
+        private static final int ROUNDS = 64;
+        private final Puzzle puzzle;
+        private final int[] empty;
+        private final AtomicLong next = new AtomicLong();
+        private final AtomicReferenceArray<G> games = new AtomicReferenceArray<G>(ROUNDS);
+
+        Fill(Puzzle puzzle) throws Exception {
+            this.puzzle = puzzle;
+            int n = 0;
+            int[] cells = new int[Board.CELLS];
+            for (int cell = 0; cell < Board.CELLS; cell++) {
+                if (puzzle.givens()[cell] == 0) {
+                    cells[n++] = cell;
+                }
+            }
+            this.empty = Arrays.copyOf(cells, n);
+        }
+
+        Puzzle puzzle() {
+            return puzzle;
+        }
+
+        // Opens the first rounds' games before anything is measured
+        Fill<G> start() throws Exception {
+            for (int r = 0; r < ROUNDS; r++) {
+                games.set(r, open());
+            }
+            return this;
+        }
+
+        abstract G open() throws Exception;
+
+        abstract void move(int thread, G game, int row, int col, int digit) throws Exception;
+
+        void step(int thread) throws Exception {
+            long ticket = next.getAndIncrement();
+            long round = ticket / empty.length;
+            int index = (int) (ticket % empty.length);
+            if (index == 0) {
+                games.set((int) ((round + ROUNDS / 2) % ROUNDS), open());
+            }
+            G game = games.get((int) (round % ROUNDS));
+            int cell = empty[index];
+            move(thread, game, cell / Board.SIZE, cell % Board.SIZE, puzzle.solution()[cell]);
+        }
+    }
+
+    private static int firstGiven(Puzzle puzzle) {
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (puzzle.givens()[cell] != 0) {
+                return cell;
+            }
+        }
+        throw new IllegalArgumentException("Puzzle has no givens");
+    }
+
+    private void run(String name, int threads, Op op) throws Exception {
+        if (!name.matches(filter)) {
+            return;
+        }
+        measure(threads, op, WARMUP_MILLIS);
+        long[] result = measure(threads, op, MEASURE_MILLIS);
+        long ops = result[0];
+        double seconds = result[1] / 1e9;
+        System.out.printf("%-40s %7d %14.0f %12.1f %12.1f%n", name, threads, ops / seconds,
+            threads * result[1] / (double) ops, result[2] / (double) ops);
+    }
+
+    // Returns {operations, elapsed nanos, bytes allocated by the worker threads}
+    private static long[] measure(final int threads, final Op op, long millis) throws Exception {
+        final CyclicBarrier start = new CyclicBarrier(threads + 1);
+        final AtomicLong ops = new AtomicLong();
+        final AtomicLong allocated = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicBoolean stop = new AtomicBoolean();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread("bench-" + t) {
+                public void run() {
+                    long id = Thread.currentThread().getId();
+                    long n = 0;
+                    try {
+                        start.await();
+                        long before = THREAD_BEAN.getThreadAllocatedBytes(id);
+                        while (!stop.get()) {
+                            // Check the stop flag only every 64 ops to keep it out of the measurement
+                            for (int k = 0; k < 64; k++) {
+                                op.run(thread, n++);
+                            }
+                        }
+                        allocated.addAndGet(THREAD_BEAN.getThreadAllocatedBytes(id) - before);
+                    } catch (Exception e) {
+                        if (failures.incrementAndGet() == 1) {
+                            e.printStackTrace();
+                        }
+                    }
+                    ops.addAndGet(n);
+                }
+            };
+            workers[t].start();
+        }
+        start.await();
+        long begin = System.nanoTime();
+        Thread.sleep(millis);
+        stop.set(true);
+        for (Thread w : workers) {
+            w.join();
+        }
+        return new long[] {ops.get(), System.nanoTime() - begin, allocated.get()};
+    }
+}
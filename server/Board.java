@@ -0,0 +1,142 @@
+public final class Board {
+    public static final int SIZE = 9;
+    public static final int CELLS = 81;
+    public static final int ALL_DIGITS = 0x3FE; // bits 1..9
+    public static final char EMPTY = '-';
+
+    static final byte[] ROW = new byte[CELLS];
+    static final byte[] COL = new byte[CELLS];
+    static final byte[] BOX = new byte[CELLS];
+
+    static {
+        for (int cell = 0; cell < CELLS; cell++) {
+            ROW[cell] = (byte) (cell / SIZE);
+            COL[cell] = (byte) (cell % SIZE);
+            BOX[cell] = (byte) ((cell / 27) * 3 + (cell % SIZE) / 3);
+        }
+    }
+
+    // cells[i] is 0 for empty or the digit 1..9; the masks hold the digits used per unit
+    private final byte[] cells = new byte[CELLS];
+    private final short[] rowMask = new short[SIZE];
+    private final short[] colMask = new short[SIZE];
+    private final short[] boxMask = new short[SIZE];
+    private int filled;
+
+    public Board() {
+    }
+
+    public Board(byte[] values) {
+        for (int cell = 0; cell < CELLS; cell++) {
+            if (values[cell] != 0) {
+                set(cell, values[cell]);
+            }
+        }
+    }
+
+    public static Board parse(String[] rows) {
+        return new Board(toBytes(rows));
+    }
+
+    public static byte[] toBytes(String[] rows) {
+        if (rows.length != SIZE) {
+            throw new IllegalArgumentException("Expected " + SIZE + " rows but got " + rows.length);
+        }
+        byte[] values = new byte[CELLS];
+        for (int r = 0; r < SIZE; r++) {
+            if (rows[r].length() != SIZE) {
+                throw new IllegalArgumentException("Row " + (r + 1) + " must have " + SIZE + " cells");
+            }
+            for (int c = 0; c < SIZE; c++) {
+                char ch = rows[r].charAt(c);
+                values[r * SIZE + c] = (byte) (ch >= '1' && ch <= '9' ? ch - '0' : 0);
+            }
+        }
+        return values;
+    }
+
+    // Reads the common one-line form: 81 characters, digits for givens and '.', '0' or '-' for blanks.
+    // Returns null if the line is not a well-formed grid.
+    public static byte[] parseLine(CharSequence line) {
+        if (line.length() < CELLS) {
+            return null;
+        }
+        byte[] values = new byte[CELLS];
+        for (int cell = 0; cell < CELLS; cell++) {
+            char ch = line.charAt(cell);
+            if (ch >= '1' && ch <= '9') {
+                values[cell] = (byte) (ch - '0');
+            } else if (ch != '.' && ch != '0' && ch != EMPTY) {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    public int get(int cell) {
+        return cells[cell];
+    }
+
+    public int filled() {
+        return filled;
+    }
+
+    public boolean isComplete() {
+        return filled == CELLS;
+    }
+
+    public int used(int cell) {
+        return rowMask[ROW[cell]] | colMask[COL[cell]] | boxMask[BOX[cell]];
+    }
+
+    public int candidates(int cell) {
+        return cells[cell] != 0 ? 0 : ~used(cell) & ALL_DIGITS;
+    }
+
+    public boolean canPlace(int cell, int digit) {
+        return cells[cell] == 0 && (used(cell) & (1 << digit)) == 0;
+    }
+
+    // Writes a digit without checking legality; callers validate against the solution first
+    public void set(int cell, int digit) {
+        if (cells[cell] != 0) {
+            clear(cell);
+        }
+        int bit = 1 << digit;
+        cells[cell] = (byte) digit;
+        rowMask[ROW[cell]] |= bit;
+        colMask[COL[cell]] |= bit;
+        boxMask[BOX[cell]] |= bit;
+        filled++;
+    }
+
+    public void clear(int cell) {
+        int digit = cells[cell];
+        if (digit == 0) {
+            return;
+        }
+        int bit = ~(1 << digit);
+        cells[cell] = 0;
+        rowMask[ROW[cell]] &= bit;
+        colMask[COL[cell]] &= bit;
+        boxMask[BOX[cell]] &= bit;
+        filled--;
+    }
+
+    public byte[] toBytes() {
+        return cells.clone();
+    }
+
+    public String[] toRows() {
+        String[] rows = new String[SIZE];
+        char[] line = new char[SIZE];
+        for (int r = 0; r < SIZE; r++) {
+            for (int c = 0; c < SIZE; c++) {
+                int digit = cells[r * SIZE + c];
+                line[c] = digit == 0 ? EMPTY : (char) ('0' + digit);
+            }
+            rows[r] = new String(line);
+        }
+        return rows;
+    }
+}
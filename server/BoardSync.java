@@ -0,0 +1,56 @@
+// Wire format for getChangesSince: a 4-byte big-endian version, a kind byte, then
+// either (cell, digit) byte pairs for a delta or all 81 cells for a full snapshot.
+public final class BoardSync {
+    public static final byte DELTA = 0;
+    public static final byte FULL = 1;
+    static final int HEADER_SIZE = 5;
+
+    private BoardSync() {
+    }
+
+    static byte[] full(int version, Board board) {
+        byte[] out = header(version, FULL, Board.CELLS);
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            out[HEADER_SIZE + cell] = (byte) board.get(cell);
+        }
+        return out;
+    }
+
+    // changes[k % changes.length] holds cell << 4 | digit for the change that produced version k + 1
+    static byte[] delta(int since, int version, short[] changes) {
+        byte[] out = header(version, DELTA, 2 * (version - since));
+        int pos = HEADER_SIZE;
+        for (int k = since; k < version; k++) {
+            short change = changes[k % changes.length];
+            out[pos++] = (byte) (change >> 4);
+            out[pos++] = (byte) (change & 0x0F);
+        }
+        return out;
+    }
+
+    private static byte[] header(int version, byte kind, int bodySize) {
+        byte[] out = new byte[HEADER_SIZE + bodySize];
+        out[0] = (byte) (version >>> 24);
+        out[1] = (byte) (version >>> 16);
+        out[2] = (byte) (version >>> 8);
+        out[3] = (byte) version;
+        out[4] = kind;
+        return out;
+    }
+
+    public static int version(byte[] payload) {
+        return (payload[0] & 0xFF) << 24 | (payload[1] & 0xFF) << 16 | (payload[2] & 0xFF) << 8 | (payload[3] & 0xFF);
+    }
+
+    // Applies a payload to a client-side copy of the cells and returns the version it brings them to
+    public static int apply(byte[] payload, byte[] cells) {
+        if (payload[4] == FULL) {
+            System.arraycopy(payload, HEADER_SIZE, cells, 0, Board.CELLS);
+        } else {
+            for (int pos = HEADER_SIZE; pos < payload.length; pos += 2) {
+                cells[payload[pos]] = payload[pos + 1];
+            }
+        }
+        return version(payload);
+    }
+}
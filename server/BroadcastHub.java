@@ -0,0 +1,308 @@
+import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Streams board changes to spectators. A move only flags its session's Topic as
+// dirty; the hub then takes one frame of the board per dirty session and fans it out
+// to the watchers, each of which has at most one delivery in flight. Anything that
+// changes while a watcher is busy is folded into its next delivery, so a slow
+// watcher never holds up the players.
+//
+// Deliveries are blocking RMI calls, so a stalled watcher does hold a thread until it
+// answers or times out. The delivery pool therefore starts a thread for each delivery
+// while it has fewer than THREADS, and idle ones exit, so only THREADS watchers
+// stalling at the same time hold up the rest. A watcher whose delivery took longer than
+// SLOW_MILLIS is then moved to a small separate pool, where it can only hold up other
+// slow watchers; it moves back once it answers quickly again. Frames are taken on a
+// thread of their own.
+public class BroadcastHub {
+    public static final int THREADS = Integer.getInteger("sudoku.watch.threads", 32);
+    public static final int SLOW_THREADS = Integer.getInteger("sudoku.watch.slowThreads", 2);
+    public static final long SLOW_MILLIS = Long.getLong("sudoku.watch.slowMillis", 100L);
+
+    private final ExecutorService pumper;
+    private final ExecutorService executor;
+    private final ExecutorService slowExecutor;
+    private final Queue<Topic> dirty = new ConcurrentLinkedQueue<Topic>();
+    // Sessions not yet closed, so a new watchAll subscriber can be sent every board
+    private final Set<Topic> open = Collections.newSetFromMap(new ConcurrentHashMap<Topic, Boolean>());
+    private final AtomicBoolean pumping = new AtomicBoolean();
+    private final ConcurrentMap<SudokuWatcher, Subscriber> subscribers =
+        new ConcurrentHashMap<SudokuWatcher, Subscriber>();
+    // Watchers of every session
+    private final Set<Subscriber> everyone = new CopyOnWriteArraySet<Subscriber>();
+
+    public BroadcastHub() {
+        this.pumper = Executors.newSingleThreadExecutor(threads("broadcast-pump"));
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(THREADS, THREADS, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), threads("broadcast-"));
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+        this.slowExecutor = Executors.newFixedThreadPool(SLOW_THREADS, threads("broadcast-slow-"));
+    }
+
+    private static ThreadFactory threads(final String prefix) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, prefix.endsWith("-") ? prefix + count.incrementAndGet() : prefix);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    public void shutdown() {
+        pumper.shutdownNow();
+        executor.shutdownNow();
+        slowExecutor.shutdownNow();
+    }
+
+    public Topic open(SudokuImpl game) {
+        Topic topic = new Topic(game);
+        open.add(topic);
+        return topic;
+    }
+
+    public void watch(Topic topic, SudokuWatcher watcher) {
+        Subscriber s = subscriber(watcher);
+        s.topics.add(topic);
+        topic.watchers.add(s);
+        // Republish so the new watcher starts off with the current board
+        topic.publish();
+    }
+
+    public void watchAll(SudokuWatcher watcher) {
+        everyone.add(subscriber(watcher));
+        // Every session starts the new watcher off with its full board; the others
+        // already have that frame, so it is only delivered to the new one
+        for (Topic topic : open) {
+            topic.publish();
+        }
+    }
+
+    public void unwatch(SudokuWatcher watcher) {
+        Subscriber s = subscribers.remove(watcher);
+        if (s != null) {
+            s.cancel();
+        }
+    }
+
+    // Called when the session is removed or evicted
+    public void close(Topic topic) {
+        topic.closed = true;
+        open.remove(topic);
+        topic.publish();
+    }
+
+    private Subscriber subscriber(SudokuWatcher watcher) {
+        Subscriber s = subscribers.get(watcher);
+        if (s == null) {
+            Subscriber created = new Subscriber(watcher);
+            s = subscribers.putIfAbsent(watcher, created);
+            if (s == null) {
+                s = created;
+            }
+        }
+        return s;
+    }
+
+    private void schedulePump() {
+        if (pumping.compareAndSet(false, true)) {
+            try {
+                pumper.execute(new Runnable() {
+                    public void run() {
+                        pump();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                pumping.set(false);
+            }
+        }
+    }
+
+    private void pump() {
+        try {
+            Topic topic;
+            while ((topic = dirty.poll()) != null) {
+                topic.dirty.set(false);
+                if (!topic.closed) {
+                    // One frame per drain, however many watchers read it
+                    topic.frame = topic.game.watchFrame();
+                }
+                for (Subscriber s : topic.watchers) {
+                    s.offer(topic);
+                }
+                for (Subscriber s : everyone) {
+                    s.offer(topic);
+                }
+            }
+        } finally {
+            pumping.set(false);
+        }
+        if (!dirty.isEmpty()) {
+            schedulePump();
+        }
+    }
+
+    // A session as seen by its watchers
+    public final class Topic {
+        final SudokuImpl game;
+        final Set<Subscriber> watchers = new CopyOnWriteArraySet<Subscriber>();
+        final AtomicBoolean dirty = new AtomicBoolean();
+        volatile Frame frame;
+        volatile boolean closed;
+
+        Topic(SudokuImpl game) {
+            this.game = game;
+        }
+
+        // Called by the game on every board change; two volatile reads when nobody watches
+        void changed() {
+            if (watchers.isEmpty() && everyone.isEmpty()) {
+                return;
+            }
+            publish();
+        }
+
+        void publish() {
+            if (dirty.compareAndSet(false, true)) {
+                BroadcastHub.this.dirty.add(this);
+                schedulePump();
+            }
+        }
+    }
+
+    // Board state at one version, plus the payloads already encoded from it
+    static final class Frame {
+        private final int version;
+        private final byte[] full;
+        private final short[] changes;
+        private final Map<Integer, byte[]> deltas = new HashMap<Integer, byte[]>();
+
+        Frame(int version, byte[] full, short[] changes) {
+            this.version = version;
+            this.full = full;
+            this.changes = changes;
+        }
+
+        int version() {
+            return version;
+        }
+
+        // Watchers at the same version share one encoded payload
+        synchronized byte[] since(int since) {
+            int gap = version - since;
+            if (since < 0 || gap < 0 || gap > changes.length) {
+                return full;
+            }
+            byte[] delta = deltas.get(since);
+            if (delta == null) {
+                delta = BoardSync.delta(since, version, changes);
+                deltas.put(since, delta);
+            }
+            return delta;
+        }
+    }
+
+    private final class Subscriber implements Runnable {
+        final SudokuWatcher watcher;
+        // Sessions this watcher follows with watch(), so unwatch can leave them
+        final Set<Topic> topics = Collections.newSetFromMap(new ConcurrentHashMap<Topic, Boolean>());
+        // Sessions with news for this watcher; a set, so repeated changes collapse into one entry
+        final Set<Topic> pending = Collections.newSetFromMap(new ConcurrentHashMap<Topic, Boolean>());
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        // Last version delivered per session; only touched by the single running delivery
+        final Map<Topic, Integer> delivered = new HashMap<Topic, Integer>();
+        volatile boolean cancelled;
+        // Set when the last delivery took longer than SLOW_MILLIS
+        volatile boolean slow;
+
+        Subscriber(SudokuWatcher watcher) {
+            this.watcher = watcher;
+        }
+
+        // Leaves every session, so nothing is offered to it any more
+        void cancel() {
+            cancelled = true;
+            everyone.remove(this);
+            for (Topic topic : topics) {
+                topic.watchers.remove(this);
+            }
+            topics.clear();
+        }
+
+        void offer(Topic topic) {
+            if (cancelled) {
+                return;
+            }
+            pending.add(topic);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    (slow ? slowExecutor : executor).execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                deliver();
+            } finally {
+                scheduled.set(false);
+            }
+            if (!pending.isEmpty() && !cancelled) {
+                schedule();
+            }
+        }
+
+        private void deliver() {
+            Iterator<Topic> it = pending.iterator();
+            while (it.hasNext() && !cancelled) {
+                Topic topic = it.next();
+                it.remove();
+                String clientId = topic.game.getClientId();
+                try {
+                    if (topic.closed) {
+                        if (delivered.remove(topic) != null) {
+                            watcher.sessionEnded(clientId);
+                        }
+                        topic.watchers.remove(this);
+                        topics.remove(topic);
+                        continue;
+                    }
+                    Frame frame = topic.frame;
+                    Integer last = delivered.get(topic);
+                    if (frame == null || (last != null && last == frame.version())) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    watcher.boardChanged(clientId, frame.since(last == null ? -1 : last));
+                    slow = System.nanoTime() - start > SLOW_MILLIS * 1000000L;
+                    delivered.put(topic, frame.version());
+                } catch (RemoteException e) {
+                    // Unreachable or timed out: forget the watcher everywhere
+                    System.err.println("Dropping watcher: " + e.getMessage());
+                    subscribers.remove(watcher, this);
+                    cancel();
+                    delivered.clear();
+                    pending.clear();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.util.concurrent.*;
+
+// Imports a large text dump of puzzles into a canonical corpus. The reader streams
+// lines in batches onto a fork-join pool that parses, checks for a unique solution,
+// rates and canonicalizes each puzzle; a bounded queue of in-flight batches keeps
+// the working set flat however large the input is. Batches are written in input order,
+// and a puzzle is dropped if a symmetric copy of it (rotated, reflected, relabeled,
+// bands or stacks swapped...) has been written already.
+//
+// The one cost that grows with the input is that duplicate check: a set of 64-bit
+// fingerprints of every distinct puzzle written, 16 to 32 bytes each (about 3 GB for
+// 100 million distinct puzzles). Give the JVM a heap to match.
+//
+//   java -Dingest.threads=8 BulkIngest puzzles.txt corpus.bin
+public class BulkIngest {
+    private static final int THREADS = Integer.getInteger("ingest.threads", Runtime.getRuntime().availableProcessors());
+    private static final int BATCH_SIZE = Integer.getInteger("ingest.batchSize", 1024);
+    // Batches read ahead of the writer; bounds memory to about this many batches
+    private static final int MAX_IN_FLIGHT = Integer.getInteger("ingest.maxInFlight", 4 * THREADS);
+    // Below this many lines a batch is processed by one task instead of being split
+    private static final int SPLIT_THRESHOLD = 32;
+
+    private static final ThreadLocal<Worker> WORKERS = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    // Per-thread solver state, reused across every puzzle the thread handles
+    private static final class Worker {
+        final Solver solver = new Solver();
+        final LogicalSolver rater = new LogicalSolver();
+        final Canonicalizer canonicalizer = new Canonicalizer();
+        final byte[] solution = new byte[Board.CELLS];
+        final byte[] canonicalGivens = new byte[Board.CELLS];
+        final byte[] canonicalSolution = new byte[Board.CELLS];
+    }
+
+    // Lines in, one corpus record (or null for a rejected line) and fingerprint out per line
+    private static final class Batch extends RecursiveAction {
+        final String[] lines;
+        final int count;
+        final byte[][] records;
+        final long[] fingerprints;
+        final int from;
+        final int to;
+
+        Batch(String[] lines, int count) {
+            this(lines, count, new byte[count][], new long[count], 0, count);
+        }
+
+        private Batch(String[] lines, int count, byte[][] records, long[] fingerprints, int from, int to) {
+            this.lines = lines;
+            this.count = count;
+            this.records = records;
+            this.fingerprints = fingerprints;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= SPLIT_THRESHOLD) {
+                Worker w = WORKERS.get();
+                for (int i = from; i < to; i++) {
+                    process(w, i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Batch(lines, count, records, fingerprints, from, mid),
+                new Batch(lines, count, records, fingerprints, mid, to));
+        }
+
+        private void process(Worker w, int i) {
+            byte[] givens = Board.parseLine(lines[i]);
+            lines[i] = null;
+            if (givens == null || w.solver.solve(givens, w.solution, 2) != 1) {
+                return;
+            }
+            Difficulty difficulty = w.rater.rate(givens);
+            w.canonicalizer.canonicalize(givens, w.solution, w.canonicalGivens, w.canonicalSolution);
+            byte[] record = new byte[PuzzleCatalog.RECORD_SIZE];
+            PuzzleCatalog.writeRecord(record, 0, w.canonicalGivens, w.canonicalSolution, difficulty);
+            records[i] = record;
+            fingerprints[i] = Canonicalizer.fingerprint(w.canonicalGivens);
+        }
+    }
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java BulkIngest <puzzles.txt> <corpus.bin>");
+            System.exit(1);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            long[] counts = ingest(new File(args[0]), new File(args[1]));
+            long millis = System.currentTimeMillis() - start;
+            System.out.println("Read " + counts[0] + " puzzles: wrote " + counts[1] + ", rejected " + counts[2]
+                + ", duplicates " + counts[3] + " (" + millis + " ms, "
+                + (millis > 0 ? counts[0] * 1000 / millis : counts[0]) + " puzzles/s on " + THREADS + " threads)");
+        } catch (Exception e) {
+            System.err.println("Ingest failed: " + e);
+            System.exit(1);
+        }
+    }
+
+    // Returns {read, written, rejected, duplicates}
+    public static long[] ingest(File in, File out) throws IOException, InterruptedException {
+        // Both opened before the writer thread exists, so failing here leaves nothing running
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(in), "US-ASCII"), 1 << 16);
+        final PuzzleCatalog.Writer output;
+        try {
+            output = new PuzzleCatalog.Writer(out);
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+        final ForkJoinPool pool = new ForkJoinPool(THREADS);
+        final BlockingQueue<ForkJoinTask<?>> inFlight = new ArrayBlockingQueue<ForkJoinTask<?>>(MAX_IN_FLIGHT);
+        final long[] counts = new long[4];
+        final IOException[] writeError = new IOException[1];
+        // Marks the end of input for the writer
+        final Batch end = new Batch(new String[0], 0);
+
+        Thread writer = new Thread("ingest-writer") {
+            public void run() {
+                LongHashSet seen = new LongHashSet();
+                try {
+                    while (true) {
+                        ForkJoinTask<?> task = inFlight.take();
+                        if (task == end) {
+                            break;
+                        }
+                        if (writeError[0] != null) {
+                            // Keep draining so the reader never blocks on a full queue
+                            continue;
+                        }
+                        Batch batch = (Batch) task;
+                        try {
+                            batch.join();
+                            for (int i = 0; i < batch.count; i++) {
+                                if (batch.records[i] == null) {
+                                    counts[2]++;
+                                } else if (!seen.add(batch.fingerprints[i])) {
+                                    counts[3]++;
+                                } else {
+                                    output.write(batch.records[i]);
+                                    counts[1]++;
+                                }
+                            }
+                        } catch (IOException e) {
+                            writeError[0] = e;
+                        } catch (RuntimeException e) {
+                            writeError[0] = new IOException("Batch failed", e);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        // Daemon, and stopped in the finally below, so a failed read never leaves it waiting
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            String[] lines = new String[BATCH_SIZE];
+            int n = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                lines[n++] = line;
+                counts[0]++;
+                if (n == BATCH_SIZE) {
+                    // Blocks while MAX_IN_FLIGHT batches are waiting for the writer
+                    inFlight.put(pool.submit(new Batch(lines, n)));
+                    lines = new String[BATCH_SIZE];
+                    n = 0;
+                }
+            }
+            if (n > 0) {
+                inFlight.put(pool.submit(new Batch(lines, n)));
+            }
+            inFlight.put(end);
+            writer.join();
+            if (writeError[0] != null) {
+                throw writeError[0];
+            }
+            output.finish();
+        } finally {
+            // Cancelled batches fail their join, so the writer drains to take() and sees the interrupt
+            pool.shutdownNow();
+            stop(writer);
+            reader.close();
+            output.close();
+        }
+        return counts;
+    }
+
+    // Interrupts the writer (a no-op once it has taken the end marker) and waits for it,
+    // since it may still be writing to the output
+    private static void stop(Thread writer) {
+        boolean interrupted = false;
+        writer.interrupt();
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Open-addressing set of fingerprints: 8 bytes per distinct puzzle instead of a boxed entry
+    static final class LongHashSet {
+        private long[] keys = new long[1 << 16];
+        private boolean hasZero;
+        private int size;
+
+        boolean add(long key) {
+            if (key == 0) {
+                boolean added = !hasZero;
+                hasZero = true;
+                return added;
+            }
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int h = (int) (key ^ key >>> 32);
+            int i = (h ^ h >>> 16) & mask;
+            while (keys[i] != 0) {
+                if (keys[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] old = keys;
+            keys = new long[old.length * 2];
+            size = 0;
+            for (long k : old) {
+                if (k != 0) {
+                    add(k);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.rmi.RemoteException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Delivers client callbacks off the move path. Each session gets a Channel that
+// coalesces pending notifications and has at most one delivery task queued or
+// running, so a slow client only ever ties up one dispatcher thread.
+public class CallbackDispatcher {
+    public static final int THREADS = Integer.getInteger("sudoku.callback.threads", 4);
+
+    private final ExecutorService executor;
+
+    public CallbackDispatcher() {
+        this(THREADS);
+    }
+
+    public CallbackDispatcher(int threads) {
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "callback-dispatcher-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public Channel newChannel(String clientId) {
+        return new Channel(clientId);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public class Channel implements Runnable {
+        private final String clientId;
+        private volatile SudokuCallback callback;
+        // Only the latest error is kept; a completion is delivered at most once
+        private final AtomicReference<String> pendingError = new AtomicReference<String>();
+        private volatile boolean pendingCompletion;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        Channel(String clientId) {
+            this.clientId = clientId;
+        }
+
+        public void register(SudokuCallback callback) {
+            this.callback = callback;
+        }
+
+        public void close() {
+            this.callback = null;
+            pendingError.set(null);
+            pendingCompletion = false;
+        }
+
+        // Never blocks: records the notification and makes sure a delivery is scheduled
+        public void error(String message) {
+            if (callback != null) {
+                pendingError.set(message);
+                schedule();
+            }
+        }
+
+        public void completion() {
+            if (callback != null) {
+                pendingCompletion = true;
+                schedule();
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        public void run() {
+            try {
+                deliver();
+            } finally {
+                scheduled.set(false);
+            }
+            // Pick up anything that arrived after the last drain but before the flag was cleared
+            if (pendingError.get() != null || pendingCompletion) {
+                schedule();
+            }
+        }
+
+        private void deliver() {
+            SudokuCallback cb = callback;
+            String message = pendingError.getAndSet(null);
+            boolean complete = pendingCompletion;
+            pendingCompletion = false;
+            if (cb == null) {
+                return;
+            }
+            try {
+                if (message != null) {
+                    cb.notifyError(message);
+                }
+                if (complete) {
+                    cb.notifyCompletion();
+                }
+            } catch (RemoteException e) {
+                // Unreachable or timed out: drop the callback rather than keep retrying a dead client
+                ServerMetrics.shared().callbackFailures.increment();
+                System.err.println("Dropping callback for client " + clientId + ": " + e.getMessage());
+                if (callback == cb) {
+                    callback = null;
+                }
+                pendingError.set(null);
+                pendingCompletion = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,285 @@
+import java.util.Arrays;
+
+// Canonical form of a puzzle under the validity-preserving transformations:
+// transposition, band and stack permutations, row and column permutations within
+// them, and digit relabeling. Equivalent puzzles with unique solutions have
+// equivalent solutions, so the search runs over the full solution grid, where it is
+// cheap, and the givens are mapped with whichever minimal transform orders them lowest.
+//
+// Not thread-safe; keep one per thread.
+public final class Canonicalizer {
+    // All orderings of three things, used for bands, stacks and the lines inside them
+    private static final int[][] PERMS = {
+        {0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}
+    };
+
+    private final byte[] grid = new byte[Board.CELLS];
+    private final byte[] best = new byte[Board.CELLS];
+    private final int[] cols = new int[Board.SIZE];
+    private final int[] rows = new int[Board.SIZE];
+    private final int[] label = new int[10];
+    private final int[] firstOfRow = new int[Board.SIZE];
+    private final byte[] candidate = new byte[Board.CELLS];
+    // Transforms reaching the minimal grid: transposition flag, row order, column order, labels
+    private int ties;
+    private boolean[] tieTransposed = new boolean[4];
+    private int[][] tieRows = new int[4][];
+    private int[][] tieCols = new int[4][];
+    private int[][] tieLabels = new int[4][];
+    // The tie the givens picked in the last canonicalize call
+    private int chosen;
+
+    // Maps cells and digits between a puzzle and its canonical form
+    public static final class Transform {
+        // source[c] is the puzzle cell that canonical cell c comes from; target is the inverse
+        private final int[] source = new int[Board.CELLS];
+        private final int[] target = new int[Board.CELLS];
+        private final byte[] label = new byte[10];
+        private final byte[] unlabel = new byte[10];
+        private final long fingerprint;
+
+        Transform(boolean transposed, int[] rows, int[] cols, int[] labels, long fingerprint) {
+            for (int k = 0; k < Board.SIZE; k++) {
+                for (int j = 0; j < Board.SIZE; j++) {
+                    int cell = rows[k] * Board.SIZE + cols[j];
+                    source[k * Board.SIZE + j] = transposed ? transpose(cell) : cell;
+                }
+            }
+            for (int c = 0; c < Board.CELLS; c++) {
+                target[source[c]] = c;
+            }
+            for (int d = 1; d <= 9; d++) {
+                label[d] = (byte) labels[d];
+                unlabel[labels[d]] = (byte) d;
+            }
+            this.fingerprint = fingerprint;
+        }
+
+        // Fingerprint of the canonical givens, shared by every symmetric variant of the puzzle
+        public long fingerprint() {
+            return fingerprint;
+        }
+
+        public void toCanonical(byte[] cells, byte[] out) {
+            for (int c = 0; c < Board.CELLS; c++) {
+                out[c] = label[cells[source[c]]];
+            }
+        }
+
+        public int canonicalCell(int cell) {
+            return target[cell];
+        }
+
+        public int canonicalDigit(int digit) {
+            return label[digit];
+        }
+
+        public int cell(int canonicalCell) {
+            return source[canonicalCell];
+        }
+
+        public int digit(int canonicalDigit) {
+            return unlabel[canonicalDigit];
+        }
+    }
+
+    // Writes the canonical givens and solution; the input arrays are left untouched
+    public void canonicalize(byte[] givens, byte[] solution, byte[] outGivens, byte[] outSolution) {
+        ties = 0;
+        // Larger than any digit, so the first candidate always wins
+        best[0] = Byte.MAX_VALUE;
+        best[Board.SIZE] = Byte.MAX_VALUE;
+        for (int t = 0; t < 2; t++) {
+            boolean transposed = t == 1;
+            for (int cell = 0; cell < Board.CELLS; cell++) {
+                grid[cell] = solution[transposed ? transpose(cell) : cell];
+            }
+            search(transposed);
+        }
+        System.arraycopy(best, 0, outSolution, 0, Board.CELLS);
+
+        // Automorphic grids have several minimal transforms; the givens decide between them
+        for (int i = 0; i < ties; i++) {
+            for (int k = 0; k < Board.SIZE; k++) {
+                for (int j = 0; j < Board.SIZE; j++) {
+                    int cell = tieRows[i][k] * Board.SIZE + tieCols[i][j];
+                    int v = givens[tieTransposed[i] ? transpose(cell) : cell];
+                    candidate[k * Board.SIZE + j] = (byte) (v == 0 ? 0 : tieLabels[i][v]);
+                }
+            }
+            if (i == 0 || compare(candidate, outGivens) < 0) {
+                System.arraycopy(candidate, 0, outGivens, 0, Board.CELLS);
+                chosen = i;
+            }
+        }
+    }
+
+    // Canonicalizes the puzzle and returns the transform into its canonical form
+    public Transform transform(byte[] givens, byte[] solution) {
+        byte[] canonicalGivens = new byte[Board.CELLS];
+        canonicalize(givens, solution, canonicalGivens, new byte[Board.CELLS]);
+        return new Transform(tieTransposed[chosen], tieRows[chosen], tieCols[chosen], tieLabels[chosen],
+            fingerprint(canonicalGivens));
+    }
+
+    private static int transpose(int cell) {
+        return cell % Board.SIZE * Board.SIZE + cell / Board.SIZE;
+    }
+
+    private void search(boolean transposed) {
+        for (int[] stacks : PERMS) {
+            for (int[] c0 : PERMS) {
+                for (int[] c1 : PERMS) {
+                    for (int[] c2 : PERMS) {
+                        cols[0] = 3 * stacks[0] + c0[0];
+                        cols[1] = 3 * stacks[0] + c0[1];
+                        cols[2] = 3 * stacks[0] + c0[2];
+                        cols[3] = 3 * stacks[1] + c1[0];
+                        cols[4] = 3 * stacks[1] + c1[1];
+                        cols[5] = 3 * stacks[1] + c1[2];
+                        cols[6] = 3 * stacks[2] + c2[0];
+                        cols[7] = 3 * stacks[2] + c2[1];
+                        cols[8] = 3 * stacks[2] + c2[2];
+                        for (int top = 0; top < Board.SIZE; top++) {
+                            tryTopRow(top, transposed);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // With the columns fixed, relabeling turns the top row into 123456789. Every row
+    // then starts with a different digit, so the lexicographically smallest order of
+    // the remaining rows is decided by their first cells alone.
+    private void tryTopRow(int top, boolean transposed) {
+        for (int j = 0; j < Board.SIZE; j++) {
+            label[grid[top * Board.SIZE + cols[j]]] = j + 1;
+        }
+        // Most candidates already lose on the second row, which comes from the top row's band
+        int band = top / 3;
+        int mateA = 3 * band + (top % 3 == 0 ? 1 : 0);
+        int mateB = 3 * band + (top % 3 == 2 ? 1 : 2);
+        int firstA = label[grid[mateA * Board.SIZE + cols[0]]];
+        int firstB = label[grid[mateB * Board.SIZE + cols[0]]];
+        int second = (firstA < firstB ? mateA : mateB) * Board.SIZE;
+        for (int j = 0; j < Board.SIZE; j++) {
+            int v = label[grid[second + cols[j]]];
+            int w = best[Board.SIZE + j];
+            if (v != w) {
+                if (v > w) {
+                    return;
+                }
+                break;
+            }
+        }
+        for (int r = 0; r < Board.SIZE; r++) {
+            firstOfRow[r] = label[grid[r * Board.SIZE + cols[0]]];
+        }
+        rows[0] = top;
+        orderRest(band, top, 1);
+        // The next band is the one holding the smallest first cell among the rest
+        int next = -1;
+        for (int r = 0; r < Board.SIZE; r++) {
+            if (r / 3 != band && (next < 0 || firstOfRow[r] < firstOfRow[next])) {
+                next = r;
+            }
+        }
+        rows[3] = next;
+        orderRest(next / 3, next, 4);
+        int third = 3 - band - next / 3;
+        int first = -1;
+        for (int r = 3 * third; r < 3 * third + 3; r++) {
+            if (first < 0 || firstOfRow[r] < firstOfRow[first]) {
+                first = r;
+            }
+        }
+        rows[6] = first;
+        orderRest(third, first, 7);
+
+        // Compare with the best grid so far, row by row, stopping at the first difference
+        int cmp = 0;
+        int k = 0;
+        for (; k < Board.SIZE && cmp == 0; k++) {
+            int base = rows[k] * Board.SIZE;
+            for (int j = 0; j < Board.SIZE; j++) {
+                int v = label[grid[base + cols[j]]];
+                int b = best[k * Board.SIZE + j];
+                if (v != b) {
+                    cmp = v < b ? -1 : 1;
+                    break;
+                }
+            }
+        }
+        if (cmp > 0) {
+            return;
+        }
+        if (cmp < 0) {
+            for (int i = 0; i < Board.CELLS; i++) {
+                best[i] = (byte) label[grid[rows[i / Board.SIZE] * Board.SIZE + cols[i % Board.SIZE]]];
+            }
+            ties = 0;
+        }
+        addTie(transposed);
+    }
+
+    // Fills rows[at], rows[at + 1] with the other two rows of the band, smallest first cell first
+    private void orderRest(int band, int taken, int at) {
+        int a = -1;
+        int b = -1;
+        for (int r = 3 * band; r < 3 * band + 3; r++) {
+            if (r != taken) {
+                if (a < 0) {
+                    a = r;
+                } else {
+                    b = r;
+                }
+            }
+        }
+        if (firstOfRow[a] < firstOfRow[b]) {
+            rows[at] = a;
+            rows[at + 1] = b;
+        } else {
+            rows[at] = b;
+            rows[at + 1] = a;
+        }
+    }
+
+    private void addTie(boolean transposed) {
+        if (ties == tieRows.length) {
+            tieTransposed = Arrays.copyOf(tieTransposed, ties * 2);
+            tieRows = Arrays.copyOf(tieRows, ties * 2);
+            tieCols = Arrays.copyOf(tieCols, ties * 2);
+            tieLabels = Arrays.copyOf(tieLabels, ties * 2);
+        }
+        if (tieRows[ties] == null) {
+            tieRows[ties] = new int[Board.SIZE];
+            tieCols[ties] = new int[Board.SIZE];
+            tieLabels[ties] = new int[10];
+        }
+        tieTransposed[ties] = transposed;
+        System.arraycopy(rows, 0, tieRows[ties], 0, Board.SIZE);
+        System.arraycopy(cols, 0, tieCols[ties], 0, Board.SIZE);
+        System.arraycopy(label, 0, tieLabels[ties], 0, 10);
+        ties++;
+    }
+
+    private static int compare(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (a[i] != b[i]) {
+                return a[i] < b[i] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    // 64-bit FNV-1a over the cells, used to recognise canonical forms already seen
+    public static long fingerprint(byte[] cells) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < cells.length; i++) {
+            h ^= cells[i];
+            h *= 0x100000001b3L;
+        }
+        return h;
+    }
+}
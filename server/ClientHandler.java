@@ -1,41 +1,139 @@
 
 import java.rmi.*;
-import java.rmi.registry.*;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
+// One simulated player. Each run() performs a single step and reschedules itself
+// after the think time (or a growing back-off while the server throttles it), so
+// thousands of players share a small thread pool.
+public class ClientHandler implements Runnable {
+    // How often (in moves) the player refreshes its board with getPuzzle
+    private static final int REFRESH_EVERY = 10;
+    // Ceiling for the wait after repeated THROTTLED replies
+    private static final long MAX_BACKOFF_MILLIS = 5000;
 
+    private final String clientId;
+    private final LoadGenerator driver;
+    private final byte[] solution = new byte[Board.CELLS];
+    private final int[] todo = new int[Board.CELLS];
+    private final Solver solver = new Solver();
+    private SudokuInterface game;
+    private int remaining;
+    private int moves;
+    private int gamesPlayed;
+    // Non-zero while the server is throttling this player; doubles with each refusal
+    private long backoffMillis;
 
-public class ClientHandler extends Thread {
-    private String clientId;
-    private String serverIP;
-
-    public ClientHandler(String clientId, String serverIP) {
+    public ClientHandler(String clientId, LoadGenerator driver) {
         this.clientId = clientId;
-        this.serverIP = serverIP;
+        this.driver = driver;
     }
 
     @Override
     public void run() {
+        if (driver.isStopping()) {
+            finish();
+            return;
+        }
         try {
-            // Get the factory
-            Registry registry = LocateRegistry.getRegistry(serverIP, 1099);
-            FabSudokuInterface factory = (FabSudokuInterface) registry.lookup("SudokuFactory");
-            
-            // Create new game instance
-            SudokuInterface game = factory.newSudoku(clientId);
-            
-            // Simulate client interaction
-            String[] puzzle = game.getPuzzle();
-            System.out.println("Puzzle assigned to client " + clientId);
-
-            // Simulate a move
-            boolean moveResult = game.makeMove(0, 0, 3);
-            System.out.println("Move result for client " + clientId + ": " + moveResult);
-
-            // Check if solved
-            boolean isSolved = game.isSolved();
-            System.out.println("Puzzle solved by client " + clientId + ": " + isSolved);
+            if (game == null) {
+                startGame();
+            } else if (!playMove()) {
+                driver.playerDone();
+                return;
+            }
         } catch (Exception e) {
-            e.printStackTrace();
+            driver.failure(clientId, e);
+            finish();
+            return;
+        }
+        long delay = backoffMillis > 0
+            ? ThreadLocalRandom.current().nextLong(backoffMillis / 2, backoffMillis + 1)
+            : driver.thinkTimeMillis();
+        driver.schedule(this, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void startGame() throws RemoteException {
+        long start = System.nanoTime();
+        game = driver.factory().newSudoku(clientId);
+        driver.newSudokuLatency.record(System.nanoTime() - start);
+
+        byte[] givens = Board.toBytes(getPuzzle());
+        if (solver.solve(givens, solution, 1) != 1) {
+            throw new IllegalStateException("Served puzzle has no solution");
+        }
+        // Visit the empty cells in a random order
+        remaining = 0;
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (givens[cell] == 0) {
+                todo[remaining++] = cell;
+            }
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = remaining - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = todo[i];
+            todo[i] = todo[j];
+            todo[j] = tmp;
+        }
+    }
+
+    // Returns false once the player has finished all of its games
+    private boolean playMove() throws RemoteException {
+        int cell = todo[remaining - 1];
+        int digit = solution[cell];
+        boolean mistake = ThreadLocalRandom.current().nextDouble() < driver.errorRate();
+        if (mistake) {
+            digit = digit % 9 + 1;
+        }
+
+        long start = System.nanoTime();
+        MoveResult result = game.move(cell / Board.SIZE, cell % Board.SIZE, digit);
+        driver.makeMoveLatency.record(System.nanoTime() - start);
+
+        if (result.isThrottled(0)) {
+            // Nothing was applied; wait longer each time and try the same cell again
+            driver.throttled.incrementAndGet();
+            backoffMillis = Math.min(Math.max(backoffMillis * 2, Math.max(driver.thinkTimeMillis(), 10)),
+                MAX_BACKOFF_MILLIS);
+            return true;
+        }
+        backoffMillis = 0;
+        driver.moves.incrementAndGet();
+
+        if (result.isAccepted(0)) {
+            remaining--;
+        } else if (!mistake) {
+            throw new IllegalStateException("Server rejected the solver's move at cell " + cell);
+        }
+        if (++moves % REFRESH_EVERY == 0) {
+            getPuzzle();
+        }
+        if (result.isSolved()) {
+            driver.factory().removeClient(clientId);
+            driver.games.incrementAndGet();
+            game = null;
+            return ++gamesPlayed < driver.gamesPerPlayer();
+        }
+        return true;
+    }
+
+    private String[] getPuzzle() throws RemoteException {
+        long start = System.nanoTime();
+        String[] puzzle = game.getPuzzle();
+        driver.getPuzzleLatency.record(System.nanoTime() - start);
+        return puzzle;
+    }
+
+    private void finish() {
+        if (game != null) {
+            try {
+                driver.factory().removeClient(clientId);
+            } catch (RemoteException e) {
+                // the server is going away too
+            }
+            game = null;
         }
+        driver.playerDone();
     }
 }
\ No newline at end of file
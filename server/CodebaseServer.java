@@ -0,0 +1,114 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Serves the server's own class files under /classes/ so clients can load the remote
+// interfaces from java.rmi.server.codebase without a separate web server. Only
+// .class resources visible to the server's class loader are served, and each is
+// read once.
+public class CodebaseServer {
+    public static final String PATH = "/classes/";
+
+    private final HttpServer http;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, byte[]> classes = new ConcurrentHashMap<String, byte[]>();
+
+    public CodebaseServer(int port) throws IOException {
+        this.http = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newFixedThreadPool(2, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "codebase-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        http.setExecutor(executor);
+        http.createContext(PATH, new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+    }
+
+    public int port() {
+        return http.getAddress().getPort();
+    }
+
+    public void start() {
+        http.start();
+    }
+
+    public void shutdown() {
+        http.stop(0);
+        executor.shutdownNow();
+    }
+
+    // Loads the class files clients fetch first, so the first connection does not pay for it
+    public void preload(String... names) throws IOException {
+        for (String name : names) {
+            if (load(name + ".class") == null) {
+                throw new IOException("Class not found for codebase: " + name);
+            }
+        }
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String name = exchange.getRequestURI().getPath().substring(PATH.length());
+            byte[] bytes = null;
+            if (("GET".equals(method) || "HEAD".equals(method)) && name.endsWith(".class")
+                && !name.startsWith("/") && !name.contains("..")) {
+                bytes = load(name);
+            }
+            if (bytes == null) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/java-vm");
+            if ("HEAD".equals(method)) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, bytes.length);
+            OutputStream body = exchange.getResponseBody();
+            body.write(bytes);
+            body.close();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private byte[] load(String name) throws IOException {
+        byte[] bytes = classes.get(name);
+        if (bytes != null) {
+            return bytes;
+        }
+        InputStream in = CodebaseServer.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                buffer.write(chunk, 0, n);
+            }
+            bytes = buffer.toByteArray();
+        } finally {
+            in.close();
+        }
+        classes.putIfAbsent(name, bytes);
+        return bytes;
+    }
+}
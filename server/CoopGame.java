@@ -0,0 +1,290 @@
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+// A board shared by any number of players, without a lock. Each cell is claimed with
+// one compare-and-set, so players only contend when they fill the very same cell, and
+// the first CAS to land owns it; everyone else gets TAKEN. Only correct digits are ever
+// placed, so cells go from empty to their solution digit exactly once: the fill
+// counter, the placement log and every snapshot are consistent without coordination.
+public class CoopGame {
+    private final ServerMetrics metrics = ServerMetrics.shared();
+
+    private final String boardId;
+    private final byte[] givens;
+    private final byte[] solution;
+    // digit << 16 | seat number of the player who placed it; givens belong to seat 0
+    private final AtomicIntegerArray cells = new AtomicIntegerArray(Board.CELLS);
+    private final AtomicInteger filled = new AtomicInteger();
+    // The k-th placement as cell << 4 | digit, written once; 0 until its player has stored it
+    private final AtomicIntegerArray placements = new AtomicIntegerArray(Board.CELLS);
+    private final AtomicInteger placed = new AtomicInteger();
+    private final AtomicInteger nextSeat = new AtomicInteger();
+    // Players at the board, or -1 once the last one has left and the board is closed
+    private final AtomicInteger seated = new AtomicInteger();
+    private final Set<Seat> seats = new CopyOnWriteArraySet<Seat>();
+
+    public CoopGame(String boardId, Puzzle puzzle) {
+        this.boardId = boardId;
+        this.givens = puzzle.givens();
+        this.solution = puzzle.solution();
+        int count = 0;
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (givens[cell] != 0) {
+                cells.set(cell, givens[cell] << 16);
+                count++;
+            }
+        }
+        filled.set(count);
+    }
+
+    public String getBoardId() {
+        return boardId;
+    }
+
+    // Null if the board closed in the meantime; the caller then opens a fresh one
+    Seat join(String clientId, CallbackDispatcher dispatcher) {
+        while (true) {
+            int n = seated.get();
+            if (n < 0) {
+                return null;
+            }
+            if (seated.compareAndSet(n, n + 1)) {
+                break;
+            }
+        }
+        // Seat numbers fit the 16 owner bits of a cell; they wrap after 65535 joins
+        Seat seat = new Seat(clientId, 1 + nextSeat.getAndIncrement() % 0xFFFF, dispatcher.newChannel(clientId));
+        seats.add(seat);
+        return seat;
+    }
+
+    // Returns true when the last player has left, which closes the board
+    boolean leave(Seat seat) {
+        if (!seats.remove(seat)) {
+            return false;
+        }
+        seat.callbacks.close();
+        while (true) {
+            int n = seated.get();
+            int next = n == 1 ? -1 : n - 1;
+            if (seated.compareAndSet(n, next)) {
+                return next < 0;
+            }
+        }
+    }
+
+    public boolean isSolved() {
+        return filled.get() == Board.CELLS;
+    }
+
+    private byte place(Seat seat, int row, int col, int number) {
+        long start = System.nanoTime();
+        try {
+            if (row < 0 || row >= 9 || col < 0 || col >= 9 || number < 1 || number > 9) {
+                seat.errors.incrementAndGet();
+                metrics.movesInvalid.increment();
+                seat.callbacks.error("Invalid move coordinates");
+                return MoveResult.REJECTED;
+            }
+            int cell = row * Board.SIZE + col;
+            if (solution[cell] != number) {
+                seat.errors.incrementAndGet();
+                metrics.movesInvalid.increment();
+                seat.callbacks.error(SudokuImpl.INVALID_MOVE[cell]);
+                return MoveResult.REJECTED;
+            }
+            metrics.movesValid.increment();
+            int claim = number << 16 | seat.number;
+            // Read first so moves on filled cells never take the cache line exclusive
+            int current = cells.get(cell);
+            if (current == 0 && cells.compareAndSet(cell, 0, claim)) {
+                placements.set(placed.getAndIncrement(), cell << 4 | number);
+                // Exactly one player sees the count reach 81
+                if (filled.incrementAndGet() == Board.CELLS) {
+                    metrics.completions.increment();
+                    for (Seat s : seats) {
+                        s.callbacks.completion();
+                    }
+                }
+                return MoveResult.ACCEPTED;
+            }
+            current = cells.get(cell);
+            // The cell holds this digit now; it is this player's if they or the puzzle put it there
+            return current == claim || (current & 0xFFFF) == 0 ? MoveResult.ACCEPTED : MoveResult.TAKEN;
+        } finally {
+            metrics.moveNanos.record(System.nanoTime() - start);
+        }
+    }
+
+    private byte[] snapshot() {
+        byte[] out = new byte[Board.CELLS];
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            out[cell] = (byte) (cells.get(cell) >>> 16);
+        }
+        return out;
+    }
+
+    // Placements stored without a gap from the given one on; later ones are still being written
+    private int published(int from) {
+        int version = from;
+        while (version < Board.CELLS && placements.get(version) != 0) {
+            version++;
+        }
+        return version;
+    }
+
+    // Versions count placements. A full board read after its version may already hold
+    // later digits, which is harmless: replaying them from a delta changes nothing.
+    private byte[] changesSince(int since) {
+        if (since < 0 || since > placed.get()) {
+            int version = published(0);
+            return BoardSync.full(version, new Board(snapshot()));
+        }
+        int version = published(since);
+        short[] changes = new short[Board.CELLS];
+        for (int k = since; k < version; k++) {
+            changes[k] = (short) placements.get(k);
+        }
+        return BoardSync.delta(since, version, changes);
+    }
+
+    // One player's session on the board, served through GameService like a solo game
+    public final class Seat implements GameSession {
+        private final String clientId;
+        private final int number;
+        private final CallbackDispatcher.Channel callbacks;
+        // A player may have several moves in flight at once
+        private final AtomicInteger errors = new AtomicInteger();
+        private final RateLimiter limiter = RateLimiter.forSession();
+        private volatile long lastActivity = System.currentTimeMillis();
+        private long token;
+
+        Seat(String clientId, int number, CallbackDispatcher.Channel callbacks) {
+            this.clientId = clientId;
+            this.number = number;
+            this.callbacks = callbacks;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        CoopGame board() {
+            return CoopGame.this;
+        }
+
+        public long getLastActivity() {
+            return lastActivity;
+        }
+
+        public long getToken() {
+            return token;
+        }
+
+        public void setToken(long token) {
+            this.token = token;
+        }
+
+        public String[] getPuzzle() throws RemoteException {
+            lastActivity = System.currentTimeMillis();
+            return new Board(snapshot()).toRows();
+        }
+
+        public boolean makeMove(int row, int col, int number) throws RemoteException {
+            lastActivity = System.currentTimeMillis();
+            return !throttled(1) && place(this, row, col, number) == MoveResult.ACCEPTED;
+        }
+
+        public boolean isSolved() throws RemoteException {
+            return CoopGame.this.isSolved();
+        }
+
+        public MoveResult move(int row, int col, int number) throws RemoteException {
+            lastActivity = System.currentTimeMillis();
+            if (throttled(1)) {
+                return MoveResult.throttled(1);
+            }
+            byte status = place(this, row, col, number);
+            return new MoveResult(new byte[] {status}, errors.get(), CoopGame.this.isSolved());
+        }
+
+        // Applied in order, but other players' moves may land in between
+        public MoveResult makeMoves(int[] moves) throws RemoteException {
+            if (moves == null || moves.length % 3 != 0) {
+                throw new RemoteException("Moves must be given as (row, col, number) triples");
+            }
+            lastActivity = System.currentTimeMillis();
+            int admitted = admitted(moves.length / 3);
+            if (admitted == 0) {
+                return MoveResult.throttled(moves.length / 3);
+            }
+            byte[] status = new byte[moves.length / 3];
+            Arrays.fill(status, admitted, status.length, MoveResult.THROTTLED);
+            for (int i = 0; i < admitted; i++) {
+                status[i] = place(this, moves[3 * i], moves[3 * i + 1], moves[3 * i + 2]);
+            }
+            return new MoveResult(status, errors.get(), CoopGame.this.isSolved());
+        }
+
+        private boolean throttled(int moves) {
+            if (limiter == null || limiter.tryAcquire(moves)) {
+                return false;
+            }
+            metrics.sessionThrottles.increment();
+            return true;
+        }
+
+        private int admitted(int moves) {
+            if (limiter == null) {
+                return moves;
+            }
+            int admitted = limiter.acquireUpTo(moves);
+            if (admitted < moves) {
+                metrics.sessionThrottles.increment();
+            }
+            return admitted;
+        }
+
+        public byte[] getChangesSince(int version) throws RemoteException {
+            lastActivity = System.currentTimeMillis();
+            return changesSince(version);
+        }
+
+        public int getCandidates(int row, int col) throws RemoteException {
+            if (row < 0 || row >= 9 || col < 0 || col >= 9) {
+                throw new RemoteException("Invalid cell " + row + ", " + col);
+            }
+            lastActivity = System.currentTimeMillis();
+            return new Board(snapshot()).candidates(row * Board.SIZE + col);
+        }
+
+        public short[] getAllCandidates() throws RemoteException {
+            lastActivity = System.currentTimeMillis();
+            Board board = new Board(snapshot());
+            short[] masks = new short[Board.CELLS];
+            for (int cell = 0; cell < Board.CELLS; cell++) {
+                masks[cell] = (short) board.candidates(cell);
+            }
+            return masks;
+        }
+
+        public Hint getHint() throws RemoteException {
+            lastActivity = System.currentTimeMillis();
+            byte[] cells = snapshot();
+            for (int cell = 0; cell < Board.CELLS; cell++) {
+                if (cells[cell] == 0) {
+                    return SudokuImpl.nextHint(givens, solution, cells);
+                }
+            }
+            return null;
+        }
+
+        public void registerCallback(SudokuCallback callback) throws RemoteException {
+            callbacks.register(callback);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.*;
+
+public class CorpusConverter {
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: java CorpusConverter <puzzles.txt> <corpus.bin>");
+            System.exit(1);
+        }
+        try {
+            long start = System.currentTimeMillis();
+            int[] counts = convert(new File(args[0]), new File(args[1]));
+            System.out.println("Wrote " + counts[0] + " puzzles to " + args[1] + ", skipped " + counts[1]
+                + " (" + (System.currentTimeMillis() - start) + " ms)");
+        } catch (IOException e) {
+            System.err.println("Conversion failed: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    // Returns {written, skipped}. Lines that do not parse or lack a unique solution are skipped.
+    public static int[] convert(File in, File out) throws IOException {
+        Solver solver = new Solver();
+        LogicalSolver rater = new LogicalSolver();
+        byte[] solution = new byte[Board.CELLS];
+        byte[] record = new byte[PuzzleCatalog.RECORD_SIZE];
+        int written = 0;
+        int skipped = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(in), "US-ASCII"));
+        PuzzleCatalog.Writer output = new PuzzleCatalog.Writer(out);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.charAt(0) == '#') {
+                    continue;
+                }
+                byte[] givens = Board.parseLine(line);
+                if (givens == null || solver.solve(givens, solution, 2) != 1) {
+                    skipped++;
+                    continue;
+                }
+                PuzzleCatalog.writeRecord(record, 0, givens, solution, rater.rate(givens));
+                output.write(record);
+                written++;
+            }
+            output.finish();
+        } finally {
+            reader.close();
+            output.close();
+        }
+        return new int[] {written, skipped};
+    }
+}
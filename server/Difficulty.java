@@ -0,0 +1,12 @@
+public enum Difficulty {
+    EASY, MEDIUM, HARD, EXPERT;
+
+    public static Difficulty parse(String name) {
+        for (Difficulty d : values()) {
+            if (d.name().equalsIgnoreCase(name)) {
+                return d;
+            }
+        }
+        throw new IllegalArgumentException("Unknown difficulty: " + name);
+    }
+}
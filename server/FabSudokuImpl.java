@@ -1,47 +1,306 @@
 
+import java.io.IOException;
 import java.rmi.*;
 import java.rmi.server.*;
-import java.util.*;
+import java.util.Collection;
 import java.util.concurrent.*;
 
 public class FabSudokuImpl extends UnicastRemoteObject implements FabSudokuInterface {
-    private final Map<String, SudokuInterface> activeGames = 
-        Collections.synchronizedMap(new HashMap<String, SudokuInterface>());
-    private final Set<String> activeClients = 
-        Collections.synchronizedSet(new HashSet<String>());
-    private static final int MAX_CLIENTS = 10;
+    private static final int MAX_CLIENTS = Integer.getInteger("sudoku.maxClients", 10000);
+    // How long newSudoku waits for a free slot before refusing the client
+    private static final long ADMISSION_WAIT_MILLIS = Long.getLong("sudoku.admissionWaitMillis", 2000L);
+    private static final long IDLE_TIMEOUT_MILLIS = Long.getLong("sudoku.session.idleTimeoutMillis", 30 * 60 * 1000L);
+    private static final long REAPER_TICK_MILLIS = Long.getLong("sudoku.session.reaperTickMillis", 1000L);
+    private static final Difficulty DEFAULT_DIFFICULTY =
+        Difficulty.parse(System.getProperty("sudoku.difficulty", "medium"));
+    // A configured corpus replaces the generated pool as the source of puzzles
+    private static final boolean CORPUS = System.getProperty("sudoku.corpus") != null;
+
+    private final ConcurrentMap<String, SudokuImpl> activeGames = new ConcurrentHashMap<String, SudokuImpl>();
+    private final ConcurrentMap<String, CoopGame> coopBoards = new ConcurrentHashMap<String, CoopGame>();
+    // Co-op players by clientId; they share the client id space and the slots with solo games
+    private final ConcurrentMap<String, CoopGame.Seat> coopSeats = new ConcurrentHashMap<String, CoopGame.Seat>();
+    // One permit per session; fair so waiting clients are admitted in arrival order
+    private final Semaphore slots = new Semaphore(MAX_CLIENTS, true);
+    private final ServerMetrics metrics = ServerMetrics.shared();
+    private final PuzzlePool pool = new PuzzlePool();
+    private final CallbackDispatcher dispatcher = new CallbackDispatcher();
+    // Single exported object serving every session; games themselves are never exported
+    private final GameService service = new GameService();
+    private final BroadcastHub hub = new BroadcastHub();
+    private final SessionReaper reaper = new SessionReaper(IDLE_TIMEOUT_MILLIS, REAPER_TICK_MILLIS,
+        new SessionReaper.Evictor() {
+            public boolean evict(GameSession session) {
+                return session instanceof CoopGame.Seat ? expire((CoopGame.Seat) session) : expire((SudokuImpl) session);
+            }
+        });
+
+    // Null when journaling is disabled
+    private final GameJournal journal;
 
     public FabSudokuImpl() throws RemoteException {
+        this(null);
+    }
+
+    // Games recorded in the journal are restored before the factory accepts any client
+    public FabSudokuImpl(GameJournal journal) throws RemoteException {
         super(); // This exports the object automatically
+        this.journal = journal;
+        if (journal != null) {
+            try {
+                recover();
+                journal.start(new GameJournal.SessionSource() {
+                    public Collection<SudokuImpl> activeSessions() {
+                        return activeGames.values();
+                    }
+                });
+            } catch (IOException e) {
+                throw new RemoteException("Journal recovery failed", e);
+            }
+        }
+        if (!CORPUS) {
+            pool.start();
+        }
+        reaper.start();
+    }
+
+    private void recover() throws IOException {
+        Collection<GameJournal.SessionState> states = journal.recover();
+        for (GameJournal.SessionState state : states) {
+            if (!slots.tryAcquire()) {
+                System.err.println("Not restoring game for client " + state.getClientId() + ": maximum clients reached");
+                continue;
+            }
+            SudokuImpl game = new SudokuImpl(state, dispatcher, journal);
+            game.setTopic(hub.open(game));
+            activeGames.put(state.getClientId(), game);
+            service.register(game);
+            reaper.track(game);
+            // Counted like a new session, so the active count stays right once it is removed
+            metrics.sessionsCreated.increment();
+        }
+        System.out.println("Recovered " + activeGames.size() + " game(s) from the journal");
+    }
+
+    public void shutdown() {
+        reaper.shutdown();
+        pool.shutdown();
+        dispatcher.shutdown();
+        hub.shutdown();
+        if (journal != null) {
+            journal.shutdown();
+        }
+    }
+
+    public SudokuInterface newSudoku(String clientId) throws RemoteException {
+        return handle(openGame(clientId, null));
     }
 
-    public synchronized SudokuInterface newSudoku(String clientId) throws RemoteException {
-        if (activeClients.size() >= MAX_CLIENTS) {
-            throw new RemoteException("Maximum clients reached (" + MAX_CLIENTS + ")");
+    public SudokuInterface newSudoku(String clientId, String difficulty) throws RemoteException {
+        try {
+            return handle(openGame(clientId, Difficulty.parse(difficulty)));
+        } catch (IllegalArgumentException e) {
+            throw new RemoteException(e.getMessage());
         }
-        
-        if (activeClients.contains(clientId)) {
+    }
+
+    // Shared by the RMI and binary endpoints; a null difficulty means the configured default
+    SudokuImpl openGame(String clientId, Difficulty difficulty) throws RemoteException {
+        if (difficulty == null) {
+            difficulty = DEFAULT_DIFFICULTY;
+        }
+        if (activeGames.containsKey(clientId) || coopSeats.containsKey(clientId)) {
             throw new RemoteException("Client ID already exists");
         }
+        long start = System.nanoTime();
+        acquireSlot();
 
-        // This creates and automatically exports the SudokuImpl instance
-        SudokuInterface game = new SudokuImpl(clientId);
-        activeGames.put(clientId, game);
-        activeClients.add(clientId);
-        System.out.println("Client connected: " + clientId + " (Total: " + activeClients.size() + ")");
-        return game;
+        boolean admitted = false;
+        try {
+            Puzzle puzzle = nextPuzzle(difficulty);
+            SudokuImpl game = new SudokuImpl(clientId, puzzle, dispatcher, journal);
+            game.setTopic(hub.open(game));
+            if (activeGames.putIfAbsent(clientId, game) != null) {
+                // Opened first so watch() never sees a game without a topic; drop it again
+                hub.close(game.getTopic());
+                game.cleanup();
+                throw new RemoteException("Client ID already exists");
+            }
+            admitted = true;
+            service.register(game);
+            game.journalOpen();
+            reaper.track(game);
+            metrics.sessionsCreated.increment();
+            metrics.sessionCreateNanos.record(System.nanoTime() - start);
+            System.out.println("Client connected: " + clientId + " (Total: " + activeGames.size() + ")");
+            return game;
+        } finally {
+            if (!admitted) {
+                slots.release();
+            }
+        }
     }
 
-    public synchronized void removeClient(String clientId) throws RemoteException {
-        if (activeClients.remove(clientId)) {
-            SudokuInterface game = activeGames.remove(clientId);
-            // Unexport the game instance
-            try {
-                UnicastRemoteObject.unexportObject(game, true);
-            } catch (Exception e) {
-                System.err.println("Error unexporting game for client " + clientId + ": " + e.getMessage());
+    // From the corpus when one is mapped; otherwise from the background-generated pool,
+    // falling back to the built-in catalog if the pool is dry
+    private Puzzle nextPuzzle(Difficulty difficulty) {
+        if (CORPUS) {
+            return PuzzleCatalog.shared().random(difficulty);
+        }
+        Puzzle puzzle = pool.poll(difficulty);
+        return puzzle != null ? puzzle : PuzzleCatalog.shared().random();
+    }
+
+    private void acquireSlot() throws RemoteException {
+        try {
+            if (!slots.tryAcquire(ADMISSION_WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+                throw new RemoteException("Maximum clients reached (" + MAX_CLIENTS + ")");
             }
-            System.out.println("Client disconnected: " + clientId + " (Remaining: " + activeClients.size() + ")");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for a free slot");
+        }
+    }
+
+    public SudokuInterface joinCoop(String boardId, String clientId) throws RemoteException {
+        if (activeGames.containsKey(clientId) || coopSeats.containsKey(clientId)) {
+            throw new RemoteException("Client ID already exists");
+        }
+        long start = System.nanoTime();
+        acquireSlot();
+
+        boolean admitted = false;
+        try {
+            CoopGame.Seat seat = null;
+            while (seat == null) {
+                CoopGame board = coopBoards.get(boardId);
+                if (board == null) {
+                    CoopGame created = new CoopGame(boardId, nextPuzzle(DEFAULT_DIFFICULTY));
+                    board = coopBoards.putIfAbsent(boardId, created);
+                    if (board == null) {
+                        board = created;
+                    }
+                }
+                seat = board.join(clientId, dispatcher);
+                if (seat == null) {
+                    // Its last player just left; make way for a new board
+                    coopBoards.remove(boardId, board);
+                }
+            }
+            if (coopSeats.putIfAbsent(clientId, seat) != null) {
+                closeSeat(seat);
+                throw new RemoteException("Client ID already exists");
+            }
+            admitted = true;
+            service.register(seat);
+            reaper.track(seat);
+            metrics.sessionsCreated.increment();
+            metrics.sessionCreateNanos.record(System.nanoTime() - start);
+            System.out.println("Client joined co-op board " + boardId + ": " + clientId);
+            return new SessionHandle(service, seat.getToken());
+        } finally {
+            if (!admitted) {
+                slots.release();
+            }
+        }
+    }
+
+    public void leaveCoop(String boardId, String clientId) throws RemoteException {
+        CoopGame.Seat seat = coopSeats.get(clientId);
+        if (seat != null && seat.board().getBoardId().equals(boardId)) {
+            removeClient(clientId);
+        }
+    }
+
+    public boolean hasCoopBoard(String boardId) throws RemoteException {
+        return coopBoards.containsKey(boardId);
+    }
+
+    private void closeSeat(CoopGame.Seat seat) {
+        CoopGame board = seat.board();
+        if (board.leave(seat)) {
+            coopBoards.remove(board.getBoardId(), board);
+        }
+    }
+
+    // Hands a game restored after a restart (or still running) back to its client
+    public SudokuInterface resumeSudoku(String clientId) throws RemoteException {
+        SudokuImpl game = activeGames.get(clientId);
+        if (game == null) {
+            throw new RemoteException("No game for client " + clientId);
+        }
+        return handle(game);
+    }
+
+    private SessionHandle handle(SudokuImpl game) {
+        return new SessionHandle(service, game.getToken());
+    }
+
+    public void watch(String clientId, SudokuWatcher watcher) throws RemoteException {
+        SudokuImpl game = activeGames.get(clientId);
+        if (game == null) {
+            throw new RemoteException("No game for client " + clientId);
+        }
+        hub.watch(game.getTopic(), watcher);
+    }
+
+    public void watchAll(SudokuWatcher watcher) throws RemoteException {
+        hub.watchAll(watcher);
+    }
+
+    public void unwatch(SudokuWatcher watcher) throws RemoteException {
+        hub.unwatch(watcher);
+    }
+
+    public void removeClient(String clientId) throws RemoteException {
+        CoopGame.Seat seat = coopSeats.remove(clientId);
+        if (seat != null) {
+            slots.release();
+            metrics.sessionsRemoved.increment();
+            service.unregister(seat);
+            reaper.untrack(seat);
+            closeSeat(seat);
+            System.out.println("Client left co-op board " + seat.board().getBoardId() + ": " + clientId);
+            return;
+        }
+        SudokuImpl game = activeGames.remove(clientId);
+        if (game != null) {
+            slots.release();
+            metrics.sessionsRemoved.increment();
+            service.unregister(game);
+            reaper.untrack(game);
+            hub.close(game.getTopic());
+            game.cleanup();
+            System.out.println("Client disconnected: " + clientId + " (Remaining: " + activeGames.size() + ")");
+        }
+    }
+
+    // Evicts a session abandoned without removeClient; a no-op if it was already removed or replaced
+    private boolean expire(SudokuImpl game) {
+        String clientId = game.getClientId();
+        if (!activeGames.remove(clientId, game)) {
+            return false;
+        }
+        slots.release();
+        metrics.sessionsEvicted.increment();
+        service.unregister(game);
+        hub.close(game.getTopic());
+        game.cleanup();
+        System.out.println("Client expired: " + clientId + " (Remaining: " + activeGames.size() + ")");
+        return true;
+    }
+
+    // Frees the slot of a co-op player who stopped calling; the board closes with its last player
+    private boolean expire(CoopGame.Seat seat) {
+        String clientId = seat.getClientId();
+        if (!coopSeats.remove(clientId, seat)) {
+            return false;
         }
+        slots.release();
+        metrics.sessionsEvicted.increment();
+        service.unregister(seat);
+        closeSeat(seat);
+        System.out.println("Client expired from co-op board " + seat.board().getBoardId() + ": " + clientId);
+        return true;
     }
 }
\ No newline at end of file
@@ -4,5 +4,16 @@ import java.rmi.RemoteException;
 
 public interface FabSudokuInterface extends Remote {
     SudokuInterface newSudoku(String clientId) throws RemoteException;
+    SudokuInterface newSudoku(String clientId, String difficulty) throws RemoteException;
+    SudokuInterface resumeSudoku(String clientId) throws RemoteException;
+    // Co-op: every player joining the same board id fills one shared board; the board
+    // opens with its first player and closes when the last one leaves
+    SudokuInterface joinCoop(String boardId, String clientId) throws RemoteException;
+    void leaveCoop(String boardId, String clientId) throws RemoteException;
+    boolean hasCoopBoard(String boardId) throws RemoteException;
+    // Spectating: board changes of one session, or of every session, until unwatch
+    void watch(String clientId, SudokuWatcher watcher) throws RemoteException;
+    void watchAll(SudokuWatcher watcher) throws RemoteException;
+    void unwatch(SudokuWatcher watcher) throws RemoteException;
     void removeClient(String clientId) throws RemoteException;
 }
\ No newline at end of file
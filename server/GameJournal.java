@@ -0,0 +1,515 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+// Write-ahead journal of game state. Every session appends its records to a small
+// buffer of its own; a single flusher thread group-commits the dirty buffers to the
+// current segment file, fsyncs according to the configured policy, and periodically
+// writes a snapshot of all active sessions so older segments can be deleted.
+//
+// A segment is a sequence of frames: int length, int CRC32 of the body, then the body:
+// long session id, int sequence number of the first record, records. A record is a
+// type byte followed by its fields. Replay stops at the first torn or corrupt frame.
+public class GameJournal {
+    public enum FsyncPolicy { ALWAYS, INTERVAL, NEVER }
+
+    private static final long FLUSH_MILLIS = Long.getLong("sudoku.journal.flushMillis", 5L);
+    private static final long SNAPSHOT_SECONDS = Long.getLong("sudoku.journal.snapshotSeconds", 60L);
+
+    static final byte OPEN = 1;
+    static final byte MOVE = 2;
+    static final byte ERROR = 3;
+    static final byte CLOSE = 4;
+
+    private static final int SNAPSHOT_MAGIC = 0x53444B53; // "SDKS"
+    private static final String SNAPSHOT = "snapshot.bin";
+    private static final String SEGMENT_PREFIX = "journal-";
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final File dir;
+    private final FsyncPolicy fsync;
+    private final long fsyncMillis;
+    private final Queue<SessionLog> dirty = new ConcurrentLinkedQueue<SessionLog>();
+    private final AtomicLong nextSessionId = new AtomicLong(1);
+    private final ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+    private final CRC32 crc = new CRC32();
+    private final ByteBuffer frameHeader = ByteBuffer.allocate(12);
+    private final ScheduledExecutorService flusher;
+    private FileChannel segment;
+    private long segmentNumber;
+    private long lastForce;
+
+    public interface SessionSource {
+        Collection<SudokuImpl> activeSessions();
+    }
+
+    // Everything needed to rebuild one game after a restart
+    public static class SessionState {
+        long id;
+        String clientId;
+        int seq;
+        int errors;
+        byte[] givens = new byte[Board.CELLS];
+        byte[] solution = new byte[Board.CELLS];
+        byte[] cells = new byte[Board.CELLS];
+        Difficulty difficulty;
+
+        public String getClientId() {
+            return clientId;
+        }
+    }
+
+    public GameJournal(File dir, FsyncPolicy fsync, long fsyncMillis) {
+        this.dir = dir;
+        this.fsync = fsync;
+        this.fsyncMillis = fsyncMillis;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "journal-flusher");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    // Configured from sudoku.journal.* properties; null when journaling is disabled
+    public static GameJournal fromProperties() {
+        String dir = System.getProperty("sudoku.journal.dir");
+        if (dir == null) {
+            return null;
+        }
+        FsyncPolicy policy = FsyncPolicy.valueOf(System.getProperty("sudoku.journal.fsync", "interval").toUpperCase());
+        return new GameJournal(new File(dir), policy, Long.getLong("sudoku.journal.fsyncMillis", 1000L));
+    }
+
+    // Rebuilds the sessions recorded in the snapshot and journal segments, in no particular order
+    public Collection<SessionState> recover() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create journal directory " + dir);
+        }
+        Map<Long, SessionState> sessions = new HashMap<Long, SessionState>();
+        long firstSegment = readSnapshot(sessions);
+        long lastSegment = firstSegment - 1;
+        for (long n : segmentNumbers()) {
+            if (n >= firstSegment) {
+                replay(new File(dir, SEGMENT_PREFIX + n), sessions);
+            }
+            lastSegment = Math.max(lastSegment, n);
+        }
+        long maxId = 0;
+        for (Long id : sessions.keySet()) {
+            maxId = Math.max(maxId, id);
+        }
+        nextSessionId.set(maxId + 1);
+        segmentNumber = Math.max(lastSegment, firstSegment - 1);
+        return sessions.values();
+    }
+
+    public void start(final SessionSource source) throws IOException {
+        openNextSegment();
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    flush();
+                } catch (IOException e) {
+                    System.err.println("Journal flush failed: " + e.getMessage());
+                }
+            }
+        }, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        flusher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    snapshot(source.activeSessions());
+                } catch (IOException e) {
+                    System.err.println("Journal snapshot failed: " + e.getMessage());
+                }
+            }
+        }, SNAPSHOT_SECONDS, SNAPSHOT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    public void shutdown() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+            flush();
+            forceAndClose(segment);
+        } catch (Exception e) {
+            System.err.println("Journal shutdown failed: " + e.getMessage());
+        }
+    }
+
+    // The OPEN record is written separately, once the game is registered (see SudokuImpl.journalOpen)
+    public SessionLog newLog() {
+        return new SessionLog(nextSessionId.getAndIncrement(), 0);
+    }
+
+    // Continues the log of a recovered session without writing a new OPEN record
+    public SessionLog reopen(SessionState state) {
+        return new SessionLog(state.id, state.seq);
+    }
+
+    // Appends are made while the owning game holds its lock, so records of one
+    // session are already ordered; the log's own monitor only guards against the flusher.
+    public class SessionLog {
+        private final long id;
+        private final AtomicBoolean queued = new AtomicBoolean();
+        private byte[] buf = new byte[32];
+        private int len;
+        // The buffer the flusher handed back after writing it; reused by the next drain
+        private byte[] spare;
+        private int flushedSeq;
+        private int nextSeq;
+        private boolean closed;
+
+        SessionLog(long id, int seq) {
+            this.id = id;
+            this.flushedSeq = seq;
+            this.nextSeq = seq;
+        }
+
+        long id() {
+            return id;
+        }
+
+        // Sequence number the next record will get; valid while the game lock is held
+        int nextSeq() {
+            return nextSeq;
+        }
+
+        void open(String clientId, byte[] givens, byte[] solution, Difficulty difficulty) {
+            if (closed) {
+                return; // removed before it was opened
+            }
+            byte[] name = clientId.getBytes(UTF8);
+            synchronized (this) {
+                ensure(4 + name.length + 2 * PuzzleCatalog.PACKED_CELLS);
+                buf[len++] = OPEN;
+                buf[len++] = (byte) (name.length >>> 8);
+                buf[len++] = (byte) name.length;
+                System.arraycopy(name, 0, buf, len, name.length);
+                len += name.length;
+                PuzzleCatalog.pack(givens, buf, len);
+                len += PuzzleCatalog.PACKED_CELLS;
+                PuzzleCatalog.pack(solution, buf, len);
+                len += PuzzleCatalog.PACKED_CELLS;
+                buf[len++] = (byte) difficulty.ordinal();
+                nextSeq++;
+            }
+            markDirty();
+        }
+
+        public void move(int cell, int digit) {
+            synchronized (this) {
+                ensure(3);
+                buf[len++] = MOVE;
+                buf[len++] = (byte) cell;
+                buf[len++] = (byte) digit;
+                nextSeq++;
+            }
+            markDirty();
+        }
+
+        public void error() {
+            synchronized (this) {
+                ensure(1);
+                buf[len++] = ERROR;
+                nextSeq++;
+            }
+            markDirty();
+        }
+
+        public void close() {
+            closed = true;
+            if (nextSeq == 0) {
+                return; // never opened, nothing to close
+            }
+            synchronized (this) {
+                ensure(1);
+                buf[len++] = CLOSE;
+                nextSeq++;
+            }
+            markDirty();
+        }
+
+        private void markDirty() {
+            if (queued.compareAndSet(false, true)) {
+                dirty.add(this);
+            }
+        }
+
+        private void ensure(int extra) {
+            if (len + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+            }
+        }
+
+        // Called by the flusher: takes the pending records under the monitor and writes them
+        // as one frame after releasing it, so a move never waits on the disk
+        void drainTo(GameJournal journal) throws IOException {
+            queued.set(false);
+            byte[] records;
+            int length;
+            int firstSeq;
+            synchronized (this) {
+                if (len == 0) {
+                    return;
+                }
+                records = buf;
+                length = len;
+                firstSeq = flushedSeq;
+                flushedSeq = nextSeq;
+                buf = spare != null ? spare : new byte[32];
+                spare = null;
+                len = 0;
+            }
+            boolean written = false;
+            try {
+                journal.writeFrame(id, firstSeq, records, length);
+                written = true;
+            } finally {
+                synchronized (this) {
+                    if (!written) {
+                        // Put them back ahead of anything recorded meanwhile, as if never drained
+                        byte[] merged = Arrays.copyOf(records, length + len);
+                        System.arraycopy(buf, 0, merged, length, len);
+                        buf = merged;
+                        len += length;
+                        flushedSeq = firstSeq;
+                    } else if (records.length <= 256) {
+                        spare = records;
+                    }
+                }
+            }
+        }
+    }
+
+    private void flush() throws IOException {
+        SessionLog log;
+        while ((log = dirty.poll()) != null) {
+            log.drainTo(this);
+        }
+        writeOut();
+        long now = System.currentTimeMillis();
+        if (fsync == FsyncPolicy.ALWAYS || (fsync == FsyncPolicy.INTERVAL && now - lastForce >= fsyncMillis)) {
+            segment.force(false);
+            lastForce = now;
+        }
+    }
+
+    private void writeFrame(long id, int firstSeq, byte[] records, int length) throws IOException {
+        int bodySize = 12 + length;
+        if (out.remaining() < 8 + bodySize) {
+            writeOut();
+        }
+        crc.reset();
+        frameHeader.clear();
+        frameHeader.putLong(id).putInt(firstSeq);
+        crc.update(frameHeader.array(), 0, 12);
+        crc.update(records, 0, length);
+        if (out.remaining() >= 8 + bodySize) {
+            out.putInt(bodySize).putInt((int) crc.getValue()).putLong(id).putInt(firstSeq).put(records, 0, length);
+        } else {
+            // Larger than the staging buffer: write it straight through
+            ByteBuffer frame = ByteBuffer.allocate(8 + bodySize);
+            frame.putInt(bodySize).putInt((int) crc.getValue()).putLong(id).putInt(firstSeq).put(records, 0, length);
+            frame.flip();
+            while (frame.hasRemaining()) {
+                segment.write(frame);
+            }
+        }
+    }
+
+    private void writeOut() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            segment.write(out);
+        }
+        out.clear();
+    }
+
+    private void openNextSegment() throws IOException {
+        segmentNumber++;
+        segment = new RandomAccessFile(new File(dir, SEGMENT_PREFIX + segmentNumber), "rw").getChannel();
+        segment.position(segment.size());
+    }
+
+    // Runs on the flusher thread: rolls to a new segment, captures every session, then drops old segments
+    private void snapshot(Collection<SudokuImpl> sessions) throws IOException {
+        flush();
+        FileChannel previous = segment;
+        long firstKept = segmentNumber + 1;
+        openNextSegment();
+        forceAndClose(previous);
+
+        File tmp = new File(dir, SNAPSHOT + ".tmp");
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16));
+        try {
+            List<SessionState> states = new ArrayList<SessionState>(sessions.size());
+            for (SudokuImpl game : sessions) {
+                SessionState state = game.captureState();
+                if (state != null) {
+                    states.add(state);
+                }
+            }
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeLong(firstKept);
+            data.writeInt(states.size());
+            byte[] packed = new byte[PuzzleCatalog.PACKED_CELLS];
+            for (SessionState s : states) {
+                data.writeLong(s.id);
+                data.writeUTF(s.clientId);
+                data.writeInt(s.seq);
+                data.writeInt(s.errors);
+                data.writeByte(s.difficulty.ordinal());
+                for (byte[] grid : new byte[][] {s.givens, s.solution, s.cells}) {
+                    PuzzleCatalog.pack(grid, packed, 0);
+                    data.write(packed);
+                }
+            }
+            data.flush();
+        } finally {
+            data.close();
+        }
+        FileOutputStream raw = new FileOutputStream(tmp, true);
+        try {
+            raw.getFD().sync();
+        } finally {
+            raw.close();
+        }
+        Files.move(tmp.toPath(), new File(dir, SNAPSHOT).toPath(),
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (long n : segmentNumbers()) {
+            if (n < firstKept) {
+                new File(dir, SEGMENT_PREFIX + n).delete();
+            }
+        }
+    }
+
+    private static void forceAndClose(FileChannel channel) throws IOException {
+        if (channel != null && channel.isOpen()) {
+            channel.force(false);
+            channel.close();
+        }
+    }
+
+    // Returns the first segment that must be replayed on top of the snapshot
+    private long readSnapshot(Map<Long, SessionState> sessions) throws IOException {
+        File file = new File(dir, SNAPSHOT);
+        if (!file.exists()) {
+            return 0;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+        try {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a journal snapshot: " + file);
+            }
+            long firstSegment = in.readLong();
+            int count = in.readInt();
+            byte[] packed = new byte[PuzzleCatalog.PACKED_CELLS];
+            ByteBuffer wrapped = ByteBuffer.wrap(packed);
+            for (int i = 0; i < count; i++) {
+                SessionState s = new SessionState();
+                s.id = in.readLong();
+                s.clientId = in.readUTF();
+                s.seq = in.readInt();
+                s.errors = in.readInt();
+                s.difficulty = Difficulty.values()[in.readByte()];
+                for (byte[] grid : new byte[][] {s.givens, s.solution, s.cells}) {
+                    in.readFully(packed);
+                    PuzzleCatalog.unpack(wrapped, 0, grid);
+                }
+                sessions.put(s.id, s);
+            }
+            return firstSegment;
+        } finally {
+            in.close();
+        }
+    }
+
+    private void replay(File file, Map<Long, SessionState> sessions) throws IOException {
+        byte[] bytes = Files.readAllBytes(file.toPath());
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        CRC32 check = new CRC32();
+        while (in.remaining() >= 8) {
+            int bodySize = in.getInt();
+            int expected = in.getInt();
+            if (bodySize < 12 || bodySize > in.remaining()) {
+                break; // torn write at the tail
+            }
+            check.reset();
+            check.update(bytes, in.position(), bodySize);
+            if ((int) check.getValue() != expected) {
+                System.err.println("Corrupt journal frame in " + file + ", ignoring the rest of the segment");
+                break;
+            }
+            int end = in.position() + bodySize;
+            long id = in.getLong();
+            int seq = in.getInt();
+            SessionState s = sessions.get(id);
+            while (in.position() < end) {
+                byte type = in.get();
+                if (type == OPEN) {
+                    byte[] name = new byte[in.getShort() & 0xFFFF];
+                    in.get(name);
+                    if (s == null) {
+                        s = new SessionState();
+                        s.id = id;
+                        s.clientId = new String(name, UTF8);
+                        PuzzleCatalog.unpack(in, in.position(), s.givens);
+                        PuzzleCatalog.unpack(in, in.position() + PuzzleCatalog.PACKED_CELLS, s.solution);
+                        System.arraycopy(s.givens, 0, s.cells, 0, Board.CELLS);
+                        s.difficulty = Difficulty.values()[in.get(in.position() + 2 * PuzzleCatalog.PACKED_CELLS)];
+                        sessions.put(id, s);
+                    }
+                    in.position(in.position() + 2 * PuzzleCatalog.PACKED_CELLS + 1);
+                } else if (type == MOVE) {
+                    int cell = in.get();
+                    int digit = in.get();
+                    if (s != null && seq >= s.seq) {
+                        s.cells[cell] = (byte) digit;
+                    }
+                } else if (type == ERROR) {
+                    if (s != null && seq >= s.seq) {
+                        s.errors++;
+                    }
+                } else if (type == CLOSE) {
+                    if (s != null) {
+                        sessions.remove(id);
+                        s = null;
+                    }
+                } else {
+                    throw new IOException("Unknown journal record type " + type + " in " + file);
+                }
+                if (s != null && seq >= s.seq) {
+                    s.seq = seq + 1;
+                }
+                seq++;
+            }
+        }
+    }
+
+    private List<Long> segmentNumbers() {
+        List<Long> numbers = new ArrayList<Long>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX)) {
+                    try {
+                        numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not one of ours
+                    }
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+}
@@ -0,0 +1,135 @@
+import java.rmi.*;
+import java.rmi.server.*;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.*;
+
+// The one exported object behind all sessions. Games are plain objects found by
+// token, so a session costs a map entry instead of a remote object and DGC lease.
+public class GameService extends UnicastRemoteObject implements GameServiceInterface {
+    private final ConcurrentMap<Long, GameSession> sessions = new ConcurrentHashMap<Long, GameSession>();
+    // Tokens are random so one client cannot guess its way into another's game
+    private final SecureRandom random = new SecureRandom();
+
+    public GameService() throws RemoteException {
+        super();
+    }
+
+    public long register(GameSession game) {
+        while (true) {
+            long token = random.nextLong();
+            game.setToken(token);
+            if (sessions.putIfAbsent(token, game) == null) {
+                return token;
+            }
+        }
+    }
+
+    public void unregister(GameSession game) {
+        sessions.remove(game.getToken(), game);
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    // One budget for all sessions of the calling host, so opening more sessions buys nothing
+    private static boolean hostThrottled(int moves) {
+        RateLimiter limiter;
+        try {
+            limiter = RateLimiter.forHost(RemoteServer.getClientHost());
+        } catch (ServerNotActiveException e) {
+            // Called in-process rather than over RMI
+            return false;
+        }
+        if (limiter == null || limiter.tryAcquire(moves)) {
+            return false;
+        }
+        ServerMetrics.shared().hostThrottles.increment();
+        return true;
+    }
+
+    private static int hostAdmitted(int moves) {
+        RateLimiter limiter;
+        try {
+            limiter = RateLimiter.forHost(RemoteServer.getClientHost());
+        } catch (ServerNotActiveException e) {
+            return moves;
+        }
+        if (limiter == null) {
+            return moves;
+        }
+        int admitted = limiter.acquireUpTo(moves);
+        if (admitted < moves) {
+            ServerMetrics.shared().hostThrottles.increment();
+        }
+        return admitted;
+    }
+
+    private GameSession game(long session) throws NoSuchObjectException {
+        GameSession game = sessions.get(session);
+        if (game == null) {
+            throw new NoSuchObjectException("Unknown or expired session");
+        }
+        return game;
+    }
+
+    public String[] getPuzzle(long session) throws RemoteException {
+        return game(session).getPuzzle();
+    }
+
+    public boolean makeMove(long session, int row, int col, int number) throws RemoteException {
+        if (hostThrottled(1)) {
+            return false;
+        }
+        return game(session).makeMove(row, col, number);
+    }
+
+    public boolean isSolved(long session) throws RemoteException {
+        return game(session).isSolved();
+    }
+
+    public MoveResult move(long session, int row, int col, int number) throws RemoteException {
+        if (hostThrottled(1)) {
+            return MoveResult.throttled(1);
+        }
+        return game(session).move(row, col, number);
+    }
+
+    public MoveResult makeMoves(long session, int[] moves) throws RemoteException {
+        if (moves == null || moves.length < 3) {
+            return game(session).makeMoves(moves);
+        }
+        // The host budget may cover only the start of the batch; the session sees just that part
+        int count = moves.length / 3;
+        int admitted = hostAdmitted(count);
+        if (admitted == 0) {
+            return MoveResult.throttled(count);
+        }
+        if (admitted == count) {
+            return game(session).makeMoves(moves);
+        }
+        int[] head = Arrays.copyOf(moves, admitted * 3);
+        return game(session).makeMoves(head).plusThrottled(count - admitted);
+    }
+
+    public byte[] getChangesSince(long session, int version) throws RemoteException {
+        return game(session).getChangesSince(version);
+    }
+
+    public int getCandidates(long session, int row, int col) throws RemoteException {
+        return game(session).getCandidates(row, col);
+    }
+
+    public short[] getAllCandidates(long session) throws RemoteException {
+        return game(session).getAllCandidates();
+    }
+
+    public Hint getHint(long session) throws RemoteException {
+        return game(session).getHint();
+    }
+
+    public void registerCallback(long session, SudokuCallback callback) throws RemoteException {
+        game(session).registerCallback(callback);
+    }
+}
@@ -0,0 +1,16 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Every game operation, addressed by the session token newSudoku handed out
+public interface GameServiceInterface extends Remote {
+    String[] getPuzzle(long session) throws RemoteException;
+    boolean makeMove(long session, int row, int col, int number) throws RemoteException;
+    boolean isSolved(long session) throws RemoteException;
+    MoveResult move(long session, int row, int col, int number) throws RemoteException;
+    MoveResult makeMoves(long session, int[] moves) throws RemoteException;
+    byte[] getChangesSince(long session, int version) throws RemoteException;
+    int getCandidates(long session, int row, int col) throws RemoteException;
+    short[] getAllCandidates(long session) throws RemoteException;
+    Hint getHint(long session) throws RemoteException;
+    void registerCallback(long session, SudokuCallback callback) throws RemoteException;
+}
@@ -0,0 +1,7 @@
+// What GameService dispatches to: one client's view of a game, found by its token
+interface GameSession extends SudokuInterface {
+    long getToken();
+    // Wall-clock time of the last client call, read by the idle session reaper
+    long getLastActivity();
+    void setToken(long token);
+}
@@ -0,0 +1,41 @@
+import java.io.Serializable;
+
+public class Hint implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final int row;
+    private final int col;
+    private final int digit;
+    private final String technique;
+
+    public Hint(int row, int col, int digit, String technique) {
+        this.row = row;
+        this.col = col;
+        this.digit = digit;
+        this.technique = technique;
+    }
+
+    public int getRow() {
+        return row;
+    }
+
+    public int getCol() {
+        return col;
+    }
+
+    public int getDigit() {
+        return digit;
+    }
+
+    // Hardest Technique name needed to reach this placement; null when no technique
+    // applies and the digit was taken from the solution instead
+    public String getTechnique() {
+        return technique;
+    }
+
+    @Override
+    public String toString() {
+        return "Place " + digit + " at row " + (row + 1) + ", column " + (col + 1)
+            + (technique != null ? " (" + technique + ")" : "");
+    }
+}
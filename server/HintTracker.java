@@ -0,0 +1,71 @@
+// Hints for one game from a solver that keeps its deductions between requests. Only
+// correct digits are ever placed, so a candidate the solver has eliminated stays
+// eliminated whatever the player does next: a move costs one placement on the solver,
+// and a hint is usually a lookup of a placement the solver has already made and the
+// player has not. Over a whole game the solver does the work of one solve.
+//
+// Not thread-safe; the game calls it with its lock held.
+public final class HintTracker {
+    private final LogicalSolver solver = new LogicalSolver();
+    private final byte[] solution;
+    // Placements the solver made ahead of the player, oldest first; each cell is placed once
+    private final Hint[] ahead = new Hint[Board.CELLS];
+    private int head;
+    private int tail;
+    // Hardest technique used since the solver's last placement
+    private Technique hardest;
+
+    public HintTracker(byte[] cells, byte[] solution) {
+        this.solution = solution;
+        solver.load(cells);
+    }
+
+    // A correct digit the player placed
+    public void placed(int cell, int digit) {
+        solver.assign(cell, digit);
+    }
+
+    // The next placement the player has not made yet, or null once the board is full
+    public Hint next(Board board) {
+        while (true) {
+            for (; head < tail; head++) {
+                Hint hint = ahead[head];
+                if (board.get(hint.getRow() * Board.SIZE + hint.getCol()) == 0) {
+                    return hint;
+                }
+            }
+            if (solver.isSolved()) {
+                return null;
+            }
+            Technique t = solver.step();
+            if (t == null) {
+                reveal();
+                continue;
+            }
+            if (hardest == null || t.difficulty().compareTo(hardest.difficulty()) > 0) {
+                hardest = t;
+            }
+            if (solver.lastCell() >= 0) {
+                add(solver.lastCell(), solver.lastDigit(), hardest.name());
+            }
+        }
+    }
+
+    // Beyond the techniques we know: take the most constrained open cell from the solution
+    private void reveal() {
+        int best = -1;
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            int count = Integer.bitCount(solver.candidates(cell));
+            if (count > 0 && (best < 0 || count < Integer.bitCount(solver.candidates(best)))) {
+                best = cell;
+            }
+        }
+        solver.assign(best, solution[best]);
+        add(best, solution[best], null);
+    }
+
+    private void add(int cell, int digit, String technique) {
+        ahead[tail++] = new Hint(cell / Board.SIZE, cell % Board.SIZE, digit, technique);
+        hardest = null;
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Log-linear histogram in the style of HdrHistogram: every power of two is split
+// into 32 linear sub-buckets, giving about 3% precision over the whole long range.
+// Recording is a single atomic increment with no locking or allocation, on a
+// per-thread stripe so threads recording the same latency do not share a cache line.
+public class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[StripedCounter.STRIPES];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    public void record(long value) {
+        stripes[StripedCounter.stripe()].incrementAndGet(index(value < 0 ? 0 : value));
+    }
+
+    static int index(long value) {
+        int msb = 63 - Long.numberOfLeadingZeros(value | 1);
+        if (msb < SUB_BITS) {
+            return (int) value;
+        }
+        int shift = msb - SUB_BITS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + (index - SUB_BUCKETS) % SUB_BUCKETS) << shift;
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (AtomicLongArray counts : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] += counts.get(i);
+            }
+        }
+        return new Snapshot(copy);
+    }
+
+    // Returns the counts recorded so far and starts a new interval
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (AtomicLongArray counts : stripes) {
+            for (int i = 0; i < BUCKETS; i++) {
+                copy[i] += counts.getAndSet(i, 0);
+            }
+        }
+        return new Snapshot(copy);
+    }
+
+    public static class Snapshot {
+        private final long[] counts;
+        private final long total;
+
+        Snapshot(long[] counts) {
+            this.counts = counts;
+            long sum = 0;
+            for (long c : counts) {
+                sum += c;
+            }
+            this.total = sum;
+        }
+
+        public long count() {
+            return total;
+        }
+
+        // Value at the given percentile (0-100), reported as the middle of its bucket
+        public long percentile(double p) {
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * p / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long low = lowerBound(i);
+                    long high = i + 1 < counts.length ? lowerBound(i + 1) : low;
+                    return low + (high - low) / 2;
+                }
+            }
+            return lowerBound(counts.length - 1);
+        }
+
+        public long max() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] != 0) {
+                    return i + 1 < counts.length ? lowerBound(i + 1) - 1 : lowerBound(i);
+                }
+            }
+            return 0;
+        }
+    }
+}
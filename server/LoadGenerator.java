@@ -0,0 +1,162 @@
+import java.rmi.registry.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Headless load driver. Without a host argument it starts a SudokuServer factory in
+// this JVM and drives it over loopback RMI.
+//
+//   java -Dload.players=10000 LoadGenerator [server-ip]
+public class LoadGenerator {
+    private static final int PORT = Integer.getInteger("load.port", 1099);
+    private static final int PLAYERS = Integer.getInteger("load.players", 1000);
+    private static final int THREADS = Integer.getInteger("load.threads", 64);
+    private static final long RAMP_UP_MILLIS = Long.getLong("load.rampUpMillis", 5000L);
+    private static final long THINK_MILLIS = Long.getLong("load.thinkMillis", 100L);
+    private static final double ERROR_RATE = Double.parseDouble(System.getProperty("load.errorRate", "0.05"));
+    private static final int GAMES_PER_PLAYER = Integer.getInteger("load.gamesPerPlayer", 1);
+    private static final long DURATION_SECONDS = Long.getLong("load.durationSeconds", 60L);
+    private static final long REPORT_SECONDS = Long.getLong("load.reportSeconds", 5L);
+
+    final LatencyHistogram newSudokuLatency = new LatencyHistogram();
+    final LatencyHistogram makeMoveLatency = new LatencyHistogram();
+    final LatencyHistogram getPuzzleLatency = new LatencyHistogram();
+    final AtomicLong moves = new AtomicLong();
+    final AtomicLong games = new AtomicLong();
+    // Moves the server refused with THROTTLED; the player backs off and retries them
+    final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger activePlayers = new AtomicInteger();
+    private final CountDownLatch allDone = new CountDownLatch(1);
+
+    private final FabSudokuInterface factory;
+    private final ScheduledExecutorService scheduler;
+    private volatile boolean stopping;
+
+    public LoadGenerator(FabSudokuInterface factory) {
+        this.factory = factory;
+        this.scheduler = Executors.newScheduledThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "load-player-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    FabSudokuInterface factory() {
+        return factory;
+    }
+
+    boolean isStopping() {
+        return stopping;
+    }
+
+    long thinkTimeMillis() {
+        // Jitter the think time so players do not move in lockstep
+        return THINK_MILLIS <= 0 ? 0 : ThreadLocalRandom.current().nextLong(THINK_MILLIS / 2, THINK_MILLIS * 3 / 2 + 1);
+    }
+
+    double errorRate() {
+        return ERROR_RATE;
+    }
+
+    int gamesPerPlayer() {
+        return GAMES_PER_PLAYER;
+    }
+
+    void schedule(Runnable player, long delay, TimeUnit unit) {
+        try {
+            scheduler.schedule(player, delay, unit);
+        } catch (RejectedExecutionException e) {
+            playerDone();
+        }
+    }
+
+    void failure(String clientId, Exception e) {
+        if (failures.incrementAndGet() <= 10) {
+            System.err.println("Player " + clientId + " failed: " + e);
+        }
+    }
+
+    void playerDone() {
+        if (activePlayers.decrementAndGet() == 0) {
+            allDone.countDown();
+        }
+    }
+
+    public void run() throws InterruptedException {
+        System.out.println("Starting " + PLAYERS + " players over " + RAMP_UP_MILLIS + " ms on " + THREADS
+            + " threads (think " + THINK_MILLIS + " ms, error rate " + ERROR_RATE + ")");
+        long start = System.nanoTime();
+        activePlayers.set(PLAYERS);
+        String prefix = "load-" + System.currentTimeMillis() + "-";
+        for (int i = 0; i < PLAYERS; i++) {
+            long delay = PLAYERS > 1 ? RAMP_UP_MILLIS * i / (PLAYERS - 1) : 0;
+            schedule(new ClientHandler(prefix + i, this), delay, TimeUnit.MILLISECONDS);
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        long lastMoves = 0;
+        long lastReport = start;
+        while (!allDone.await(REPORT_SECONDS, TimeUnit.SECONDS)) {
+            long now = System.nanoTime();
+            long total = moves.get();
+            System.out.printf("[%4ds] players=%d moves/s=%.0f games=%d throttled=%d failures=%d%n",
+                TimeUnit.NANOSECONDS.toSeconds(now - start), activePlayers.get(),
+                (total - lastMoves) * 1e9 / (now - lastReport), games.get(), throttled.get(), failures.get());
+            lastMoves = total;
+            lastReport = now;
+            if (now >= deadline && !stopping) {
+                System.out.println("Duration reached, stopping players");
+                stopping = true;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        scheduler.shutdownNow();
+        report(elapsed);
+    }
+
+    private void report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%nElapsed %.1f s, %d moves (%.0f moves/s), %d games completed, %d throttled, %d failures%n",
+            seconds, moves.get(), moves.get() / seconds, games.get(), throttled.get(), failures.get());
+        System.out.printf("%-10s %10s %10s %10s %10s %10s%n", "operation", "count", "p50 us", "p99 us", "p999 us", "max us");
+        print("newSudoku", newSudokuLatency);
+        print("makeMove", makeMoveLatency);
+        print("getPuzzle", getPuzzleLatency);
+    }
+
+    private static void print(String name, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot s = histogram.snapshot();
+        System.out.printf("%-10s %10d %10.1f %10.1f %10.1f %10.1f%n", name, s.count(),
+            s.percentile(50) / 1e3, s.percentile(99) / 1e3, s.percentile(99.9) / 1e3, s.max() / 1e3);
+    }
+
+    public static void main(String[] args) {
+        try {
+            String host = args.length > 0 ? args[0] : "127.0.0.1";
+            if (args.length == 0) {
+                // Self-contained run: serve the factory from this JVM and connect to it over loopback
+                System.setProperty("java.rmi.server.hostname", host);
+                // Every simulated player comes from this host, so only the per-session limit applies
+                if (System.getProperty("sudoku.rate.host.movesPerSecond") == null) {
+                    System.setProperty("sudoku.rate.host.movesPerSecond", "0");
+                }
+                ServerMetrics.shared().start();
+                Registry registry = LocateRegistry.createRegistry(PORT);
+                registry.rebind("SudokuFactory", new FabSudokuImpl());
+            }
+            Registry registry = LocateRegistry.getRegistry(host, PORT);
+            FabSudokuInterface factory = (FabSudokuInterface) registry.lookup("SudokuFactory");
+            new LoadGenerator(factory).run();
+            System.exit(0);
+        } catch (Exception e) {
+            System.err.println("Load generator exception: " + e.toString());
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+}
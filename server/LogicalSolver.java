@@ -0,0 +1,288 @@
+import java.util.Arrays;
+
+public final class LogicalSolver {
+    private final byte[] cells = new byte[Board.CELLS];
+    private final short[] cand = new short[Board.CELLS];
+    private final int[] where = new int[10];
+    private int filled;
+    private int lastCell = -1;
+    private int lastDigit;
+
+    public void load(byte[] values) {
+        filled = 0;
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            cells[cell] = 0;
+            cand[cell] = Board.ALL_DIGITS;
+        }
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (values[cell] != 0) {
+                place(cell, values[cell]);
+            }
+        }
+    }
+
+    public boolean isSolved() {
+        return filled == Board.CELLS;
+    }
+
+    public int candidates(int cell) {
+        return cand[cell];
+    }
+
+    // Cell and digit of the most recent placement made by step()
+    public int lastCell() {
+        return lastCell;
+    }
+
+    public int lastDigit() {
+        return lastDigit;
+    }
+
+    // Rates a puzzle by the hardest technique needed to solve it without guessing
+    public Difficulty rate(byte[] puzzle) {
+        load(puzzle);
+        Difficulty hardest = Difficulty.EASY;
+        while (!isSolved()) {
+            Technique t = step();
+            if (t == null) {
+                return Difficulty.EXPERT;
+            }
+            if (t.difficulty().compareTo(hardest) > 0) {
+                hardest = t.difficulty();
+            }
+        }
+        return hardest;
+    }
+
+    // Applies the simplest technique that makes progress; null when stuck
+    public Technique step() {
+        lastCell = -1;
+        if (nakedSingle()) {
+            return Technique.NAKED_SINGLE;
+        }
+        if (hiddenSingle()) {
+            return Technique.HIDDEN_SINGLE;
+        }
+        if (lockedCandidates()) {
+            return Technique.LOCKED_CANDIDATES;
+        }
+        if (nakedPair()) {
+            return Technique.NAKED_PAIR;
+        }
+        if (hiddenPair()) {
+            return Technique.HIDDEN_PAIR;
+        }
+        if (nakedTriple()) {
+            return Technique.NAKED_TRIPLE;
+        }
+        return null;
+    }
+
+    // Places a digit known to be correct, from outside step(); a no-op if step() already placed it
+    public void assign(int cell, int digit) {
+        if (cells[cell] == 0) {
+            place(cell, digit);
+        }
+    }
+
+    private void place(int cell, int digit) {
+        int bit = 1 << digit;
+        cells[cell] = (byte) digit;
+        cand[cell] = 0;
+        int[] peers = Solver.PEERS[cell];
+        for (int i = 0; i < peers.length; i++) {
+            cand[peers[i]] &= ~bit;
+        }
+        filled++;
+        lastCell = cell;
+        lastDigit = digit;
+    }
+
+    private boolean nakedSingle() {
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            int mask = cand[cell];
+            if (cells[cell] == 0 && mask != 0 && (mask & (mask - 1)) == 0) {
+                place(cell, Integer.numberOfTrailingZeros(mask));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hiddenSingle() {
+        for (int u = 0; u < Solver.UNITS.length; u++) {
+            int[] unit = Solver.UNITS[u];
+            for (int digit = 1; digit <= 9; digit++) {
+                int bit = 1 << digit;
+                int at = -1;
+                int count = 0;
+                for (int i = 0; i < 9 && count < 2; i++) {
+                    if ((cand[unit[i]] & bit) != 0) {
+                        at = unit[i];
+                        count++;
+                    }
+                }
+                if (count == 1) {
+                    place(at, digit);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean lockedCandidates() {
+        // Pointing: a digit confined to one line inside a box; claiming: confined to one box inside a line
+        for (int u = 0; u < Solver.UNITS.length; u++) {
+            int[] unit = Solver.UNITS[u];
+            for (int digit = 1; digit <= 9; digit++) {
+                int bit = 1 << digit;
+                int rows = 0;
+                int cols = 0;
+                int boxes = 0;
+                for (int i = 0; i < 9; i++) {
+                    int cell = unit[i];
+                    if ((cand[cell] & bit) != 0) {
+                        rows |= 1 << Board.ROW[cell];
+                        cols |= 1 << Board.COL[cell];
+                        boxes |= 1 << Board.BOX[cell];
+                    }
+                }
+                if (rows == 0) {
+                    continue;
+                }
+                if (u >= 18) {
+                    if (Integer.bitCount(rows) == 1
+                            && eliminate(Solver.UNITS[Integer.numberOfTrailingZeros(rows)], bit, u)) {
+                        return true;
+                    }
+                    if (Integer.bitCount(cols) == 1
+                            && eliminate(Solver.UNITS[9 + Integer.numberOfTrailingZeros(cols)], bit, u)) {
+                        return true;
+                    }
+                } else if (Integer.bitCount(boxes) == 1
+                        && eliminate(Solver.UNITS[18 + Integer.numberOfTrailingZeros(boxes)], bit, u)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Removes bit from every cell of target that is not also in unit keep
+    private boolean eliminate(int[] target, int bit, int keep) {
+        boolean changed = false;
+        for (int i = 0; i < 9; i++) {
+            int cell = target[i];
+            if ((cand[cell] & bit) != 0 && !inUnit(cell, keep)) {
+                cand[cell] &= ~bit;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean inUnit(int cell, int u) {
+        if (u < 9) {
+            return Board.ROW[cell] == u;
+        }
+        if (u < 18) {
+            return Board.COL[cell] == u - 9;
+        }
+        return Board.BOX[cell] == u - 18;
+    }
+
+    private boolean nakedPair() {
+        for (int u = 0; u < Solver.UNITS.length; u++) {
+            int[] unit = Solver.UNITS[u];
+            for (int i = 0; i < 9; i++) {
+                int mask = cand[unit[i]];
+                if (Integer.bitCount(mask) != 2) {
+                    continue;
+                }
+                for (int j = i + 1; j < 9; j++) {
+                    if (cand[unit[j]] == mask && clearExcept(unit, mask, (1 << i) | (1 << j))) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean nakedTriple() {
+        for (int u = 0; u < Solver.UNITS.length; u++) {
+            int[] unit = Solver.UNITS[u];
+            for (int i = 0; i < 9; i++) {
+                if (cand[unit[i]] == 0) {
+                    continue;
+                }
+                for (int j = i + 1; j < 9; j++) {
+                    if (cand[unit[j]] == 0) {
+                        continue;
+                    }
+                    for (int k = j + 1; k < 9; k++) {
+                        if (cand[unit[k]] == 0) {
+                            continue;
+                        }
+                        int mask = cand[unit[i]] | cand[unit[j]] | cand[unit[k]];
+                        if (Integer.bitCount(mask) == 3
+                                && clearExcept(unit, mask, (1 << i) | (1 << j) | (1 << k))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Removes the digits in mask from every cell of unit whose index is not in keep
+    private boolean clearExcept(int[] unit, int mask, int keep) {
+        boolean changed = false;
+        for (int i = 0; i < 9; i++) {
+            int cell = unit[i];
+            if ((keep & (1 << i)) == 0 && (cand[cell] & mask) != 0) {
+                cand[cell] &= ~mask;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private boolean hiddenPair() {
+        for (int u = 0; u < Solver.UNITS.length; u++) {
+            int[] unit = Solver.UNITS[u];
+            int[] where = this.where;
+            Arrays.fill(where, 0);
+            for (int i = 0; i < 9; i++) {
+                for (int mask = cand[unit[i]]; mask != 0; mask &= mask - 1) {
+                    where[Integer.numberOfTrailingZeros(mask)] |= 1 << i;
+                }
+            }
+            for (int a = 1; a <= 9; a++) {
+                if (Integer.bitCount(where[a]) != 2) {
+                    continue;
+                }
+                for (int b = a + 1; b <= 9; b++) {
+                    if (where[b] != where[a]) {
+                        continue;
+                    }
+                    int pair = (1 << a) | (1 << b);
+                    boolean changed = false;
+                    for (int i = 0; i < 9; i++) {
+                        int cell = unit[i];
+                        if ((where[a] & (1 << i)) != 0 && (cand[cell] & ~pair) != 0) {
+                            cand[cell] &= pair;
+                            changed = true;
+                        }
+                    }
+                    if (changed) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,68 @@
+import java.io.Serializable;
+import java.util.Arrays;
+
+public class MoveResult implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final byte REJECTED = 0;
+    public static final byte ACCEPTED = 1;
+    // Co-op only: the digit was right but another player filled the cell first
+    public static final byte TAKEN = 2;
+    // Refused by a rate limit before reaching the game; nothing was checked or called back
+    public static final byte THROTTLED = 3;
+
+    // Shared, since a throttled single move has nothing particular to report
+    private static final MoveResult THROTTLED_MOVE = new MoveResult(new byte[] {THROTTLED}, -1, false);
+
+    private final byte[] status;
+    private final int errors;
+    private final boolean solved;
+
+    public MoveResult(byte[] status, int errors, boolean solved) {
+        this.status = status;
+        this.errors = errors;
+        this.solved = solved;
+    }
+
+    // getErrors() is -1: reading the real count would mean taking the game lock
+    static MoveResult throttled(int moves) {
+        if (moves == 1) {
+            return THROTTLED_MOVE;
+        }
+        byte[] status = new byte[moves];
+        Arrays.fill(status, THROTTLED);
+        return new MoveResult(status, -1, false);
+    }
+
+    // This result followed by moves that a rate limit held back
+    MoveResult plusThrottled(int moves) {
+        byte[] all = Arrays.copyOf(status, status.length + moves);
+        Arrays.fill(all, status.length, all.length, THROTTLED);
+        return new MoveResult(all, errors, solved);
+    }
+
+    public int size() {
+        return status.length;
+    }
+
+    public byte getStatus(int index) {
+        return status[index];
+    }
+
+    public boolean isAccepted(int index) {
+        return status[index] == ACCEPTED;
+    }
+
+    public boolean isThrottled(int index) {
+        return status[index] == THROTTLED;
+    }
+
+    // Total rejected moves in this game so far, including earlier calls; -1 if throttled
+    public int getErrors() {
+        return errors;
+    }
+
+    public boolean isSolved() {
+        return solved;
+    }
+}
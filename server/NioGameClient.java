@@ -0,0 +1,146 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+
+// Blocking client for NioGameServer. One instance per thread; a connection can hold
+// any number of games, each addressed by the handle newGame returned.
+public class NioGameClient implements Closeable {
+    // Requests written before their replies are read; small enough that neither side's socket buffer fills
+    private static final int WINDOW = 256;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final SocketChannel channel;
+    private final ByteBuffer out = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+    private int nextRequestId;
+
+    public NioGameClient(String host, int port) throws IOException {
+        this.channel = SocketChannel.open(new InetSocketAddress(host, port));
+        channel.socket().setTcpNoDelay(true);
+        in.flip();
+    }
+
+    // A null difficulty gets the server's default tier
+    public int newGame(String clientId, Difficulty difficulty) throws IOException {
+        byte[] name = clientId.getBytes(UTF8);
+        int id = begin(NioGameServer.NEW_GAME, -1, 2 + name.length + 1);
+        out.putShort((short) name.length);
+        out.put(name);
+        out.put((byte) (difficulty == null ? -1 : difficulty.ordinal()));
+        send();
+        expect(id);
+        return in.getInt();
+    }
+
+    public MoveResult move(int handle, int row, int col, int number) throws IOException {
+        int id = writeMove(handle, row, col, number);
+        send();
+        expect(id);
+        byte status = in.get();
+        int errors = in.getInt();
+        return new MoveResult(new byte[] {status}, errors, in.get() != 0);
+    }
+
+    // Pipelines the (row, col, number) triples instead of waiting for each reply in turn
+    public MoveResult moves(int handle, int[] moves) throws IOException {
+        byte[] status = new byte[moves.length / 3];
+        int errors = 0;
+        boolean solved = false;
+        for (int first = 0; first < status.length; first += WINDOW) {
+            int last = Math.min(status.length, first + WINDOW);
+            int firstId = nextRequestId;
+            for (int i = first; i < last; i++) {
+                writeMove(handle, moves[3 * i], moves[3 * i + 1], moves[3 * i + 2]);
+            }
+            send();
+            for (int i = first; i < last; i++) {
+                expect(firstId + i - first);
+                status[i] = in.get();
+                errors = in.getInt();
+                solved = in.get() != 0;
+            }
+        }
+        return new MoveResult(status, errors, solved);
+    }
+
+    public byte[] getChangesSince(int handle, int version) throws IOException {
+        int id = begin(NioGameServer.BOARD, handle, 4);
+        out.putInt(version);
+        send();
+        byte[] payload = new byte[expect(id)];
+        in.get(payload);
+        return payload;
+    }
+
+    public boolean isSolved(int handle) throws IOException {
+        int id = begin(NioGameServer.SOLVED, handle, 0);
+        send();
+        expect(id);
+        return in.get() != 0;
+    }
+
+    public void remove(int handle) throws IOException {
+        int id = begin(NioGameServer.REMOVE, handle, 0);
+        send();
+        expect(id);
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int writeMove(int handle, int row, int col, int number) {
+        int id = begin(NioGameServer.MOVE, handle, 3);
+        out.put((byte) row).put((byte) col).put((byte) number);
+        return id;
+    }
+
+    private int begin(byte op, int handle, int payload) {
+        int id = nextRequestId++;
+        out.putInt(NioGameServer.HEADER_SIZE + payload).putInt(id).put(op).putInt(handle);
+        return id;
+    }
+
+    private void send() throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+
+    // Reads the next reply, which must be for the given request; returns the payload size
+    private int expect(int requestId) throws IOException {
+        fill(4);
+        int length = in.getInt();
+        fill(length);
+        int id = in.getInt();
+        byte status = in.get();
+        int payload = length - 5;
+        if (status == NioGameServer.FAILED) {
+            byte[] text = new byte[in.getShort() & 0xFFFF];
+            in.get(text);
+            throw new IOException(new String(text, UTF8));
+        }
+        if (id != requestId) {
+            throw new IOException("Expected reply to request " + requestId + " but got " + id);
+        }
+        return payload;
+    }
+
+    private void fill(int bytes) throws IOException {
+        if (in.remaining() >= bytes) {
+            return;
+        }
+        in.compact();
+        while (in.position() < bytes) {
+            if (channel.read(in) < 0) {
+                throw new IOException("Connection closed by server");
+            }
+        }
+        in.flip();
+    }
+}
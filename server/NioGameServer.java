@@ -0,0 +1,450 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.rmi.RemoteException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Binary endpoint for the factory and game operations, next to the RMI registry.
+// Each worker thread runs its own selector; moves, board and solved queries are
+// answered inline on that thread and the replies to everything read in one pass go
+// out in a single write, so a client can pipeline any number of requests.
+//
+// Request:  int length, int request id, byte op, int game handle, payload
+// Response: int length, int request id, byte status (OK / FAILED), payload
+//
+//   NEW_GAME  payload: short name length, UTF-8 client id, byte difficulty (-1 = default)
+//             reply:   int handle, valid on this connection only
+//   MOVE      payload: byte row, byte col, byte number
+//             reply:   byte MoveResult status, int errors, byte solved
+//   BOARD     payload: int version (-1 for a full board)
+//             reply:   a BoardSync payload
+//   SOLVED    reply:   byte solved
+//   REMOVE    ends the game behind the handle
+//   FAILED    reply:   short message length, UTF-8 message
+public class NioGameServer {
+    public static final int THREADS = Integer.getInteger("sudoku.nio.threads", Runtime.getRuntime().availableProcessors());
+    public static final int BUFFER_SIZE = Integer.getInteger("sudoku.nio.bufferSize", 64 * 1024);
+
+    static final byte NEW_GAME = 1;
+    static final byte MOVE = 2;
+    static final byte BOARD = 3;
+    static final byte SOLVED = 4;
+    static final byte REMOVE = 5;
+
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+
+    static final int HEADER_SIZE = 9; // request id, op, handle
+    static final int MAX_FRAME = 1024;
+    // Room a single reply may need: length, request id, status and a full board or error message
+    private static final int MAX_REPLY = 4 + 4 + 1 + 2 + MAX_FRAME;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final FabSudokuImpl factory;
+    private final ServerMetrics metrics = ServerMetrics.shared();
+    private final ServerSocketChannel server;
+    private final Worker[] workers;
+    // NEW_GAME may wait for an admission slot, so it never runs on a selector thread
+    private final ExecutorService admissions;
+    private volatile boolean running = true;
+
+    public NioGameServer(FabSudokuImpl factory, int port) throws IOException {
+        this.factory = factory;
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 1024);
+        this.workers = new Worker[THREADS];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker();
+        }
+        this.admissions = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "nio-admission-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    public void start() {
+        for (int i = 0; i < workers.length; i++) {
+            Thread t = new Thread(workers[i], "nio-worker-" + (i + 1));
+            t.setDaemon(true);
+            t.start();
+        }
+        Thread acceptor = new Thread(new Runnable() {
+            public void run() {
+                accept();
+            }
+        }, "nio-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            server.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+        for (Worker w : workers) {
+            w.selector.wakeup();
+        }
+        admissions.shutdownNow();
+    }
+
+    private void accept() {
+        int next = 0;
+        while (running) {
+            try {
+                final SocketChannel channel = server.accept();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                final Worker worker = workers[next++ % workers.length];
+                worker.execute(new Runnable() {
+                    public void run() {
+                        worker.register(channel);
+                    }
+                });
+            } catch (IOException e) {
+                if (running) {
+                    System.err.println("NIO accept failed: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        final Selector selector;
+        final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+        // Direct buffers are expensive to allocate, so closed connections hand theirs back
+        final Deque<ByteBuffer> buffers = new ArrayDeque<ByteBuffer>();
+
+        Worker() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        ByteBuffer acquire() {
+            ByteBuffer b = buffers.poll();
+            return b != null ? b : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        void release(ByteBuffer b) {
+            b.clear();
+            buffers.push(b);
+        }
+
+        void register(SocketChannel channel) {
+            try {
+                Connection c = new Connection(this, channel);
+                c.key = channel.register(selector, SelectionKey.OP_READ, c);
+            } catch (IOException e) {
+                System.err.println("NIO register failed: " + e.getMessage());
+            }
+        }
+
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection c = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isWritable()) {
+                                c.flush();
+                            }
+                            if (key.isValid() && key.isReadable()) {
+                                c.read();
+                            }
+                        } catch (IOException e) {
+                            c.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    System.err.println("NIO selector failed: " + e.getMessage());
+                }
+            }
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+    }
+
+    // Confined to its worker thread; the only cross-thread entry is through Worker.execute
+    private final class Connection {
+        final Worker worker;
+        final SocketChannel channel;
+        final ByteBuffer in;
+        final ByteBuffer out;
+        final List<SudokuImpl> games = new ArrayList<SudokuImpl>();
+        // Shared with the host's RMI calls and other connections; null when host limits are off
+        final RateLimiter limiter;
+        SelectionKey key;
+        // NEW_GAME replies that arrived while the output buffer was full
+        final Queue<Runnable> deferred = new ArrayDeque<Runnable>();
+        // Set when replies backed up and unread requests are waiting in the input buffer
+        boolean paused;
+        boolean closed;
+
+        Connection(Worker worker, SocketChannel channel) {
+            this.worker = worker;
+            this.channel = channel;
+            this.in = worker.acquire();
+            this.out = worker.acquire();
+            Socket socket = channel.socket();
+            this.limiter = RateLimiter.forHost(socket.getInetAddress() == null ? null
+                : socket.getInetAddress().getHostAddress());
+        }
+
+        void read() throws IOException {
+            if (channel.read(in) < 0) {
+                close();
+                return;
+            }
+            process();
+        }
+
+        void process() throws IOException {
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < HEADER_SIZE || length > MAX_FRAME) {
+                    throw new IOException("Bad frame length " + length);
+                }
+                if (in.remaining() < 4 + length) {
+                    break;
+                }
+                if (out.remaining() < MAX_REPLY) {
+                    paused = true;
+                    break;
+                }
+                int end = in.position() + 4 + length;
+                in.position(in.position() + 4);
+                handle(end);
+                in.position(end);
+            }
+            in.compact();
+            flush();
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            if (out.position() > 0) {
+                // The socket is full: stop reading until the replies drain
+                key.interestOps(SelectionKey.OP_WRITE);
+            } else {
+                if (key.interestOps() != SelectionKey.OP_READ) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                Runnable reply;
+                while (out.remaining() >= MAX_REPLY && (reply = deferred.poll()) != null) {
+                    reply.run();
+                }
+                if (paused) {
+                    paused = false;
+                    process();
+                }
+            }
+        }
+
+        private void handle(int end) {
+            int requestId = in.getInt();
+            byte op = in.get();
+            int handle = in.getInt();
+            if (op == NEW_GAME) {
+                newGame(requestId, end);
+                return;
+            }
+            SudokuImpl game = handle >= 0 && handle < games.size() ? games.get(handle) : null;
+            if (game == null) {
+                fail(requestId, "Unknown game handle " + handle);
+                return;
+            }
+            // Arguments are read without further checks, so a short frame must not reach into the next one
+            int payload = op == MOVE ? 3 : op == BOARD ? 4 : 0;
+            if (in.position() + payload > end) {
+                fail(requestId, "Malformed request: operation " + op + " needs " + payload + " payload bytes");
+                return;
+            }
+            int start = begin(requestId, OK);
+            try {
+                switch (op) {
+                    case MOVE:
+                        if (limiter != null && !limiter.tryAcquire(1)) {
+                            metrics.hostThrottles.increment();
+                            out.put(MoveResult.THROTTLED).putInt(-1).put((byte) 0);
+                        } else {
+                            game.move(in.get(), in.get(), in.get(), out);
+                        }
+                        break;
+                    case BOARD:
+                        out.put(game.getChangesSince(in.getInt()));
+                        break;
+                    case SOLVED:
+                        out.put((byte) (game.isSolved() ? 1 : 0));
+                        break;
+                    case REMOVE:
+                        games.set(handle, null);
+                        factory.removeClient(game.getClientId());
+                        break;
+                    default:
+                        out.position(start);
+                        fail(requestId, "Unknown operation " + op);
+                        return;
+                }
+                end(start);
+            } catch (RemoteException e) {
+                out.position(start);
+                fail(requestId, e.getMessage());
+            } catch (RuntimeException e) {
+                // A malformed payload must not take the worker down
+                out.position(start);
+                fail(requestId, e.toString());
+            }
+        }
+
+        private void newGame(final int requestId, int end) {
+            if (in.position() + 2 > end) {
+                fail(requestId, "Malformed NEW_GAME request");
+                return;
+            }
+            byte[] name = new byte[in.getShort() & 0xFFFF];
+            if (in.position() + name.length + 1 > end) {
+                fail(requestId, "Malformed NEW_GAME request");
+                return;
+            }
+            in.get(name);
+            final String clientId = new String(name, UTF8);
+            byte tier = in.get();
+            final Difficulty difficulty = tier < 0 || tier >= Difficulty.values().length ? null : Difficulty.values()[tier];
+            try {
+                admissions.execute(new Runnable() {
+                    public void run() {
+                        SudokuImpl game = null;
+                        String error = null;
+                        try {
+                            game = factory.openGame(clientId, difficulty);
+                        } catch (RemoteException e) {
+                            error = e.getMessage();
+                        }
+                        final SudokuImpl created = game;
+                        final String message = error;
+                        worker.execute(new Runnable() {
+                            public void run() {
+                                gameOpened(requestId, clientId, created, message);
+                            }
+                        });
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                fail(requestId, "Server shutting down");
+            }
+        }
+
+        // Runs back on the worker thread once the admission thread is done
+        private void gameOpened(int requestId, String clientId, SudokuImpl game, String error) {
+            if (closed) {
+                if (game != null) {
+                    removeQuietly(clientId);
+                }
+                return;
+            }
+            final int id = requestId;
+            final SudokuImpl g = game;
+            final String e = error;
+            Runnable reply = new Runnable() {
+                public void run() {
+                    if (g == null) {
+                        fail(id, e);
+                    } else {
+                        int start = begin(id, OK);
+                        out.putInt(games.size());
+                        games.add(g);
+                        end(start);
+                    }
+                }
+            };
+            if (out.remaining() < MAX_REPLY) {
+                // Replies are backed up; this one goes out once the socket has drained
+                deferred.add(reply);
+                return;
+            }
+            reply.run();
+            try {
+                flush();
+            } catch (IOException ex) {
+                close();
+            }
+        }
+
+        private int begin(int requestId, byte status) {
+            int start = out.position();
+            out.putInt(0);
+            out.putInt(requestId);
+            out.put(status);
+            return start;
+        }
+
+        private void end(int start) {
+            out.putInt(start, out.position() - start - 4);
+        }
+
+        private void fail(int requestId, String message) {
+            byte[] text = String.valueOf(message).getBytes(UTF8);
+            int length = Math.min(text.length, MAX_FRAME);
+            int start = begin(requestId, FAILED);
+            out.putShort((short) length);
+            out.put(text, 0, length);
+            end(start);
+        }
+
+        // Games outlive the connection, as with RMI; the idle reaper collects abandoned ones
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // already gone
+            }
+            worker.release(in);
+            worker.release(out);
+        }
+    }
+
+    private void removeQuietly(String clientId) {
+        try {
+            factory.removeClient(clientId);
+        } catch (RemoteException e) {
+            System.err.println("Error removing client " + clientId + ": " + e.getMessage());
+        }
+    }
+}
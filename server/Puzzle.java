@@ -0,0 +1,24 @@
+public final class Puzzle {
+    private final byte[] givens;
+    private final byte[] solution;
+    private final Difficulty difficulty;
+
+    public Puzzle(byte[] givens, byte[] solution, Difficulty difficulty) {
+        this.givens = givens;
+        this.solution = solution;
+        this.difficulty = difficulty;
+    }
+
+    // The arrays are shared, not copied; callers must treat them as read-only
+    public byte[] givens() {
+        return givens;
+    }
+
+    public byte[] solution() {
+        return solution;
+    }
+
+    public Difficulty difficulty() {
+        return difficulty;
+    }
+}
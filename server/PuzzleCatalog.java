@@ -0,0 +1,324 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ThreadLocalRandom;
+
+public final class PuzzleCatalog {
+    // Each record holds the givens and the solution packed two cells per byte, then the difficulty
+    static final int PACKED_CELLS = (Board.CELLS + 1) / 2;
+    static final int RECORD_SIZE = 2 * PACKED_CELLS + 2;
+    private static final int SOLUTION_OFFSET = PACKED_CELLS;
+    private static final int DIFFICULTY_OFFSET = 2 * PACKED_CELLS;
+
+    // Corpus file layout: magic, version, record size, record count, the first record and count
+    // of each difficulty tier, then the records back to back grouped by tier
+    static final int MAGIC = 0x53444B43; // "SDKC"
+    static final short VERSION = 2;
+    private static final int TIERS = Difficulty.values().length;
+    static final int HEADER_SIZE = 16 + TIERS * 16;
+
+    // Records are split into segments so a mapped corpus can exceed the 2 GB limit of one buffer
+    private static final int SEGMENT_SHIFT = 22;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final ByteBuffer[] segments;
+    private final int size;
+    // Each tier is the record range [tierStart, tierStart + tierSize)
+    private final int[] tierStart;
+    private final int[] tierSize;
+
+    private static class Shared {
+        static final PuzzleCatalog INSTANCE = load();
+    }
+
+    PuzzleCatalog(ByteBuffer[] segments, int size, int[] tierStart, int[] tierSize) {
+        this.segments = segments;
+        this.size = size;
+        this.tierStart = tierStart;
+        this.tierSize = tierSize;
+    }
+
+    // Loaded once on first use and shared by every game
+    public static PuzzleCatalog shared() {
+        return Shared.INSTANCE;
+    }
+
+    private static PuzzleCatalog load() {
+        String corpus = System.getProperty("sudoku.corpus");
+        if (corpus == null) {
+            return builtIn();
+        }
+        try {
+            PuzzleCatalog catalog = map(new File(corpus));
+            System.out.println("Mapped puzzle corpus " + corpus + " (" + catalog.size() + " puzzles)");
+            return catalog;
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot map puzzle corpus " + corpus + ": " + e.getMessage(), e);
+        }
+    }
+
+    // Maps a corpus file read-only; records are paged in on access and never copied onto the
+    // heap, and only the header is read up front, so opening costs the same at any corpus size
+    public static PuzzleCatalog map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException("Not a puzzle corpus file");
+            }
+            short version = header.getShort();
+            short recordSize = header.getShort();
+            long count = header.getLong();
+            if (version != VERSION || recordSize != RECORD_SIZE) {
+                throw new IOException("Unsupported corpus version " + version + " with record size " + recordSize);
+            }
+            if (count > Integer.MAX_VALUE || HEADER_SIZE + count * RECORD_SIZE > channel.size()) {
+                throw new IOException("Corpus header claims " + count + " records but the file is too short");
+            }
+            int size = (int) count;
+            int[] tierStart = new int[TIERS];
+            int[] tierSize = new int[TIERS];
+            long next = 0;
+            for (int d = 0; d < TIERS; d++) {
+                long first = header.getLong();
+                long records = header.getLong();
+                if (first != next || records < 0 || first + records > count) {
+                    throw new IOException("Corrupt corpus header: tier " + Difficulty.values()[d]
+                        + " claims records " + first + " to " + (first + records));
+                }
+                tierStart[d] = (int) first;
+                tierSize[d] = (int) records;
+                next = first + records;
+            }
+            if (next != count) {
+                throw new IOException("Corrupt corpus header: tiers cover " + next + " of " + count + " records");
+            }
+            ByteBuffer[] segments = new ByteBuffer[(int) ((count + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+            for (int i = 0; i < segments.length; i++) {
+                long first = (long) i << SEGMENT_SHIFT;
+                long records = Math.min(count - first, 1L << SEGMENT_SHIFT);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_SIZE + first * RECORD_SIZE, records * RECORD_SIZE);
+            }
+            return new PuzzleCatalog(segments, size, tierStart, tierSize);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static PuzzleCatalog builtIn() {
+        String[][] puzzles = SudokuFactory.createPuzzles();
+        String[][] solutions = SudokuFactory.createSolutions();
+        LogicalSolver rater = new LogicalSolver();
+        Difficulty[] rated = new Difficulty[puzzles.length];
+        int[] tierStart = new int[TIERS];
+        int[] tierSize = new int[TIERS];
+        for (int i = 0; i < puzzles.length; i++) {
+            rated[i] = rater.rate(Board.toBytes(puzzles[i]));
+            tierSize[rated[i].ordinal()]++;
+        }
+        for (int d = 1; d < TIERS; d++) {
+            tierStart[d] = tierStart[d - 1] + tierSize[d - 1];
+        }
+        // Laid out like a corpus file: grouped by tier
+        byte[] records = new byte[puzzles.length * RECORD_SIZE];
+        int[] filled = tierStart.clone();
+        for (int i = 0; i < puzzles.length; i++) {
+            int id = filled[rated[i].ordinal()]++;
+            writeRecord(records, id * RECORD_SIZE, Board.toBytes(puzzles[i]), Board.toBytes(solutions[i]), rated[i]);
+        }
+        ByteBuffer[] segments = {ByteBuffer.wrap(records).asReadOnlyBuffer()};
+        return new PuzzleCatalog(segments, puzzles.length, tierStart, tierSize);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public Puzzle get(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("No puzzle " + id + " in a catalog of " + size);
+        }
+        ByteBuffer records = segments[id >>> SEGMENT_SHIFT];
+        int base = (id & SEGMENT_MASK) * RECORD_SIZE;
+        byte[] givens = new byte[Board.CELLS];
+        byte[] solution = new byte[Board.CELLS];
+        unpack(records, base, givens);
+        unpack(records, base + SOLUTION_OFFSET, solution);
+        // Checked here rather than at load, which would page in the whole file
+        int d = records.get(base + DIFFICULTY_OFFSET);
+        if (d < 0 || d >= TIERS || id < tierStart[d] || id >= tierStart[d] + tierSize[d]) {
+            throw new IllegalStateException("Corrupt corpus record " + id + ": difficulty byte " + d);
+        }
+        return new Puzzle(givens, solution, Difficulty.values()[d]);
+    }
+
+    public Puzzle random() {
+        return get(ThreadLocalRandom.current().nextInt(size));
+    }
+
+    public int size(Difficulty difficulty) {
+        return tierSize[difficulty.ordinal()];
+    }
+
+    // The n-th puzzle of a tier, in file order
+    public Puzzle get(Difficulty difficulty, int n) {
+        int d = difficulty.ordinal();
+        if (n < 0 || n >= tierSize[d]) {
+            throw new IndexOutOfBoundsException("No puzzle " + n + " in a tier of " + tierSize[d]);
+        }
+        return get(tierStart[d] + n);
+    }
+
+    // A random puzzle of the tier, or of the nearest tier that has any, like PuzzlePool.poll
+    public Puzzle random(Difficulty difficulty) {
+        int level = difficulty.ordinal();
+        for (int distance = 0; distance < TIERS; distance++) {
+            int harder = level + distance;
+            if (harder < TIERS && tierSize[harder] > 0) {
+                return get(tierStart[harder] + ThreadLocalRandom.current().nextInt(tierSize[harder]));
+            }
+            int easier = level - distance;
+            if (distance > 0 && easier >= 0 && tierSize[easier] > 0) {
+                return get(tierStart[easier] + ThreadLocalRandom.current().nextInt(tierSize[easier]));
+            }
+        }
+        throw new IllegalStateException("Puzzle catalog is empty");
+    }
+
+    static void writeRecord(byte[] dst, int offset, byte[] givens, byte[] solution, Difficulty difficulty) {
+        pack(givens, dst, offset);
+        pack(solution, dst, offset + SOLUTION_OFFSET);
+        dst[offset + DIFFICULTY_OFFSET] = (byte) difficulty.ordinal();
+        dst[offset + DIFFICULTY_OFFSET + 1] = 0;
+    }
+
+    static void writeHeader(ByteBuffer dst, long[] tierCounts) {
+        long count = 0;
+        for (long n : tierCounts) {
+            count += n;
+        }
+        dst.putInt(MAGIC);
+        dst.putShort(VERSION);
+        dst.putShort((short) RECORD_SIZE);
+        dst.putLong(count);
+        long first = 0;
+        for (long n : tierCounts) {
+            dst.putLong(first).putLong(n);
+            first += n;
+        }
+    }
+
+    // Streams records into a corpus file. Records arrive in any order of difficulty, so each
+    // tier is spooled to its own file next to the output and the tiers are appended after
+    // the header on close; memory stays at one buffer per tier whatever the corpus size.
+    static final class Writer implements Closeable {
+        private final File out;
+        private final File[] spools = new File[TIERS];
+        private final OutputStream[] streams = new OutputStream[TIERS];
+        private final long[] counts = new long[TIERS];
+        private boolean finished;
+
+        Writer(File out) throws IOException {
+            this.out = out;
+            try {
+                for (int d = 0; d < TIERS; d++) {
+                    spools[d] = new File(out.getPath() + "." + Difficulty.values()[d].name().toLowerCase());
+                    streams[d] = new BufferedOutputStream(new FileOutputStream(spools[d]), 1 << 16);
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        // A record built by writeRecord
+        void write(byte[] record) throws IOException {
+            int d = record[DIFFICULTY_OFFSET];
+            streams[d].write(record, 0, RECORD_SIZE);
+            counts[d]++;
+        }
+
+        long count() {
+            long count = 0;
+            for (long n : counts) {
+                count += n;
+            }
+            return count;
+        }
+
+        // Writes the header and the tiers; without this, close leaves no output file
+        void finish() throws IOException {
+            for (OutputStream stream : streams) {
+                stream.close();
+            }
+            FileOutputStream output = new FileOutputStream(out);
+            try {
+                FileChannel channel = output.getChannel();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                writeHeader(header, counts);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header);
+                }
+                for (File spool : spools) {
+                    FileInputStream input = new FileInputStream(spool);
+                    try {
+                        FileChannel from = input.getChannel();
+                        long size = from.size();
+                        for (long done = 0; done < size;) {
+                            done += from.transferTo(done, size - done, channel);
+                        }
+                    } finally {
+                        input.close();
+                    }
+                }
+            } finally {
+                output.close();
+            }
+            finished = true;
+        }
+
+        // Removes the spool files, and the output too unless finish completed
+        public void close() {
+            for (int d = 0; d < TIERS; d++) {
+                if (streams[d] != null) {
+                    try {
+                        streams[d].close();
+                    } catch (IOException e) {
+                        // only the spool file, deleted next
+                    }
+                }
+                if (spools[d] != null) {
+                    spools[d].delete();
+                }
+            }
+            if (!finished) {
+                out.delete();
+            }
+        }
+    }
+
+    static void pack(byte[] cells, byte[] dst, int offset) {
+        for (int i = 0; i < Board.CELLS; i += 2) {
+            int high = i + 1 < Board.CELLS ? cells[i + 1] : 0;
+            dst[offset + i / 2] = (byte) (cells[i] | high << 4);
+        }
+    }
+
+    // Absolute reads only, so one buffer can be shared by all threads
+    static void unpack(ByteBuffer src, int offset, byte[] cells) {
+        for (int i = 0; i < Board.CELLS; i += 2) {
+            int b = src.get(offset + i / 2);
+            cells[i] = (byte) (b & 0x0F);
+            if (i + 1 < Board.CELLS) {
+                cells[i + 1] = (byte) ((b >> 4) & 0x0F);
+            }
+        }
+    }
+}
@@ -0,0 +1,58 @@
+import java.util.Random;
+
+public final class PuzzleGenerator {
+    private final Random random;
+    private final Solver solver = new Solver();
+    private final LogicalSolver rater = new LogicalSolver();
+    private final int[] order = new int[Board.CELLS];
+
+    public PuzzleGenerator(Random random) {
+        this.random = random;
+        for (int i = 0; i < Board.CELLS; i++) {
+            order[i] = i;
+        }
+    }
+
+    // Digs a random full grid down to minClues, keeping the solution unique, then rates the result
+    public Puzzle generate(int minClues) {
+        byte[] solution = fullGrid();
+        byte[] puzzle = solution.clone();
+        shuffle(order);
+        int clues = Board.CELLS;
+        for (int i = 0; i < Board.CELLS && clues > minClues; i++) {
+            int cell = order[i];
+            byte digit = puzzle[cell];
+            puzzle[cell] = 0;
+            if (solver.solve(puzzle, null, 2) == 1) {
+                clues--;
+            } else {
+                puzzle[cell] = digit;
+            }
+        }
+        return new Puzzle(puzzle, solution, rater.rate(puzzle));
+    }
+
+    private byte[] fullGrid() {
+        // The three diagonal boxes share no unit, so any random fill of them can be completed
+        byte[] seed = new byte[Board.CELLS];
+        int[] digits = {1, 2, 3, 4, 5, 6, 7, 8, 9};
+        for (int box = 0; box < 3; box++) {
+            shuffle(digits);
+            for (int i = 0; i < 9; i++) {
+                seed[(box * 3 + i / 3) * Board.SIZE + box * 3 + i % 3] = (byte) digits[i];
+            }
+        }
+        byte[] grid = new byte[Board.CELLS];
+        solver.solve(seed, grid, 1);
+        return grid;
+    }
+
+    private void shuffle(int[] values) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int tmp = values[i];
+            values[i] = values[j];
+            values[j] = tmp;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class PuzzlePool {
+    public static final int DEPTH = Integer.getInteger("sudoku.pool.depth", 64);
+    public static final int THREADS = Integer.getInteger("sudoku.pool.threads", 2);
+    public static final long REFILL_MILLIS = Long.getLong("sudoku.pool.refillMillis", 5L);
+
+    // Clue floor used when digging for each tier; fewer clues tend to need harder techniques
+    private static final int[] MIN_CLUES = {36, 30, 26, 17};
+
+    private final Map<Difficulty, BlockingQueue<Puzzle>> pools =
+        new EnumMap<Difficulty, BlockingQueue<Puzzle>>(Difficulty.class);
+    private final ScheduledExecutorService workers;
+    private final int threads;
+    private final long refillMillis;
+
+    public PuzzlePool() {
+        this(DEPTH, THREADS, REFILL_MILLIS);
+    }
+
+    public PuzzlePool(int depth, int threads, long refillMillis) {
+        for (Difficulty d : Difficulty.values()) {
+            pools.put(d, new ArrayBlockingQueue<Puzzle>(depth));
+        }
+        this.threads = threads;
+        this.refillMillis = refillMillis;
+        this.workers = Executors.newScheduledThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "puzzle-generator-" + count.incrementAndGet());
+                t.setDaemon(true);
+                t.setPriority(Thread.MIN_PRIORITY);
+                return t;
+            }
+        });
+    }
+
+    public void start() {
+        for (int i = 0; i < threads; i++) {
+            final PuzzleGenerator generator = new PuzzleGenerator(new Random());
+            workers.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    refill(generator);
+                }
+            }, 0, refillMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+
+    // Never generates: returns a pooled puzzle of the requested tier, the nearest
+    // non-empty tier if that one has run dry, or null if every pool is empty
+    public Puzzle poll(Difficulty difficulty) {
+        Difficulty[] tiers = Difficulty.values();
+        for (int distance = 0; distance < tiers.length; distance++) {
+            int harder = difficulty.ordinal() + distance;
+            if (harder < tiers.length) {
+                Puzzle p = pools.get(tiers[harder]).poll();
+                if (p != null) {
+                    return p;
+                }
+            }
+            int easier = difficulty.ordinal() - distance;
+            if (distance > 0 && easier >= 0) {
+                Puzzle p = pools.get(tiers[easier]).poll();
+                if (p != null) {
+                    return p;
+                }
+            }
+        }
+        return null;
+    }
+
+    public int size(Difficulty difficulty) {
+        return pools.get(difficulty).size();
+    }
+
+    private void refill(PuzzleGenerator generator) {
+        Difficulty target = null;
+        int lowest = Integer.MAX_VALUE;
+        for (Map.Entry<Difficulty, BlockingQueue<Puzzle>> e : pools.entrySet()) {
+            BlockingQueue<Puzzle> q = e.getValue();
+            if (q.remainingCapacity() > 0 && q.size() < lowest) {
+                lowest = q.size();
+                target = e.getKey();
+            }
+        }
+        if (target == null) {
+            return;
+        }
+        try {
+            Puzzle p = generator.generate(MIN_CLUES[target.ordinal()]);
+            // The rating decides the tier; a full pool simply drops the extra puzzle
+            pools.get(p.difficulty()).offer(p);
+        } catch (RuntimeException e) {
+            System.err.println("Puzzle generation failed: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,95 @@
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Token bucket held in one AtomicLong: the time at which the bucket will be full again
+// (the generic cell rate algorithm). A call is admitted while that time is at most
+// burst tokens ahead of now, and pushes it one token further; no lock, no timer thread.
+public final class RateLimiter {
+    // Per game session; 0 turns the limit off
+    public static final double SESSION_RATE = Double.parseDouble(System.getProperty("sudoku.rate.movesPerSecond", "20"));
+    public static final int SESSION_BURST = Integer.getInteger("sudoku.rate.burst", 30);
+    // Per client host, over all of its sessions and connections
+    public static final double HOST_RATE = Double.parseDouble(System.getProperty("sudoku.rate.host.movesPerSecond", "2000"));
+    public static final int HOST_BURST = Integer.getInteger("sudoku.rate.host.burst", 4000);
+    // Idle hosts are dropped once this many are tracked
+    private static final int MAX_HOSTS = 4096;
+
+    private static final ConcurrentMap<String, RateLimiter> HOSTS = new ConcurrentHashMap<String, RateLimiter>();
+
+    private final long interval;
+    private final long tolerance;
+    private final AtomicLong full;
+
+    public RateLimiter(double perSecond, int burst) {
+        this.interval = (long) (1e9 / perSecond);
+        this.tolerance = interval * burst;
+        this.full = new AtomicLong(System.nanoTime());
+    }
+
+    // Null when session limits are off
+    public static RateLimiter forSession() {
+        return SESSION_RATE > 0 ? new RateLimiter(SESSION_RATE, SESSION_BURST) : null;
+    }
+
+    // Shared by every session and connection from the host; null when host limits are off
+    public static RateLimiter forHost(String host) {
+        if (HOST_RATE <= 0 || host == null) {
+            return null;
+        }
+        RateLimiter limiter = HOSTS.get(host);
+        if (limiter == null) {
+            if (HOSTS.size() >= MAX_HOSTS) {
+                pruneIdle();
+            }
+            RateLimiter created = new RateLimiter(HOST_RATE, HOST_BURST);
+            limiter = HOSTS.putIfAbsent(host, created);
+            if (limiter == null) {
+                limiter = created;
+            }
+        }
+        return limiter;
+    }
+
+    // A host whose bucket has refilled loses nothing by starting over with a new one
+    private static void pruneIdle() {
+        long now = System.nanoTime();
+        for (Iterator<RateLimiter> it = HOSTS.values().iterator(); it.hasNext();) {
+            if (it.next().full.get() - now <= 0) {
+                it.remove();
+            }
+        }
+    }
+
+    public boolean tryAcquire(int tokens) {
+        long now = System.nanoTime();
+        while (true) {
+            long current = full.get();
+            long next = (current - now < 0 ? now : current) + tokens * interval;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (full.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    // As many of the tokens as fit in the bucket right now, possibly none, so a batch
+    // larger than the burst is admitted in part rather than refused forever
+    public int acquireUpTo(int tokens) {
+        long now = System.nanoTime();
+        while (true) {
+            long current = full.get();
+            long base = current - now < 0 ? now : current;
+            int granted = (int) Math.min(tokens, (tolerance - (base - now)) / interval);
+            if (granted <= 0) {
+                return 0;
+            }
+            if (full.compareAndSet(current, base + granted * interval)) {
+                return granted;
+            }
+        }
+    }
+}
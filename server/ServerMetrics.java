@@ -0,0 +1,189 @@
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.concurrent.*;
+import javax.management.ObjectName;
+
+// Server-wide counters and latency histograms. Recording never locks or allocates;
+// reading goes through JMX (sudoku:type=ServerMetrics) or the periodic file dump.
+public class ServerMetrics implements ServerMetricsMBean {
+    private static final String FILE = System.getProperty("sudoku.metrics.file");
+    private static final long DUMP_SECONDS = Long.getLong("sudoku.metrics.dumpSeconds", 10L);
+
+    private static final ServerMetrics SHARED = new ServerMetrics();
+
+    final StripedCounter sessionsCreated = new StripedCounter();
+    final StripedCounter sessionsRemoved = new StripedCounter();
+    final StripedCounter sessionsEvicted = new StripedCounter();
+    final StripedCounter movesValid = new StripedCounter();
+    final StripedCounter movesInvalid = new StripedCounter();
+    final StripedCounter completions = new StripedCounter();
+    final StripedCounter callbackFailures = new StripedCounter();
+    final StripedCounter lockContentions = new StripedCounter();
+    final StripedCounter cacheHits = new StripedCounter();
+    final StripedCounter cacheMisses = new StripedCounter();
+    // Moves refused by the per-session and per-host rate limits
+    final StripedCounter sessionThrottles = new StripedCounter();
+    final StripedCounter hostThrottles = new StripedCounter();
+    final LatencyHistogram sessionCreateNanos = new LatencyHistogram();
+    final LatencyHistogram moveNanos = new LatencyHistogram();
+    // Only contended acquisitions are recorded; uncontended ones cost nothing extra
+    final LatencyHistogram lockWaitNanos = new LatencyHistogram();
+
+    private ScheduledExecutorService dumper;
+
+    public static ServerMetrics shared() {
+        return SHARED;
+    }
+
+    // Registers the MBean and, if sudoku.metrics.file is set, starts the periodic dump
+    public synchronized void start() {
+        try {
+            ObjectName name = new ObjectName("sudoku:type=ServerMetrics");
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            System.err.println("Cannot register metrics MBean: " + e.getMessage());
+        }
+        if (FILE != null && dumper == null) {
+            dumper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "metrics-dump");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            dumper.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    dump(new File(FILE));
+                }
+            }, DUMP_SECONDS, DUMP_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    private void dump(File file) {
+        try {
+            Writer out = new BufferedWriter(new FileWriter(file, true));
+            try {
+                out.write(new Date() + " " + snapshot() + System.getProperty("line.separator"));
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            System.err.println("Cannot write metrics to " + file + ": " + e.getMessage());
+        }
+    }
+
+    public long getSessionsCreated() {
+        return sessionsCreated.sum();
+    }
+
+    public long getSessionsRemoved() {
+        return sessionsRemoved.sum();
+    }
+
+    public long getSessionsEvicted() {
+        return sessionsEvicted.sum();
+    }
+
+    public long getSessionsActive() {
+        return getSessionsCreated() - getSessionsRemoved() - getSessionsEvicted();
+    }
+
+    public long getMovesValid() {
+        return movesValid.sum();
+    }
+
+    public long getMovesInvalid() {
+        return movesInvalid.sum();
+    }
+
+    public long getCompletions() {
+        return completions.sum();
+    }
+
+    public long getCallbackFailures() {
+        return callbackFailures.sum();
+    }
+
+    public long getLockContentions() {
+        return lockContentions.sum();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    public long getSessionThrottles() {
+        return sessionThrottles.sum();
+    }
+
+    public long getHostThrottles() {
+        return hostThrottles.sum();
+    }
+
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long total = hits + cacheMisses.sum();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public double getSessionCreateP50Micros() {
+        return micros(sessionCreateNanos, 50);
+    }
+
+    public double getSessionCreateP99Micros() {
+        return micros(sessionCreateNanos, 99);
+    }
+
+    public double getMoveP50Micros() {
+        return micros(moveNanos, 50);
+    }
+
+    public double getMoveP99Micros() {
+        return micros(moveNanos, 99);
+    }
+
+    public double getMoveP999Micros() {
+        return micros(moveNanos, 99.9);
+    }
+
+    public double getLockWaitP99Micros() {
+        return micros(lockWaitNanos, 99);
+    }
+
+    private static double micros(LatencyHistogram histogram, double percentile) {
+        return histogram.snapshot().percentile(percentile) / 1000.0;
+    }
+
+    public String snapshot() {
+        LatencyHistogram.Snapshot create = sessionCreateNanos.snapshot();
+        LatencyHistogram.Snapshot move = moveNanos.snapshot();
+        LatencyHistogram.Snapshot lockWait = lockWaitNanos.snapshot();
+        return "sessions.created=" + getSessionsCreated()
+            + " sessions.active=" + getSessionsActive()
+            + " sessions.removed=" + getSessionsRemoved()
+            + " sessions.evicted=" + getSessionsEvicted()
+            + " moves.valid=" + getMovesValid()
+            + " moves.invalid=" + getMovesInvalid()
+            + " completions=" + getCompletions()
+            + " callbacks.failed=" + getCallbackFailures()
+            + " moves.throttled.session=" + getSessionThrottles()
+            + " moves.throttled.host=" + getHostThrottles()
+            + " lock.contended=" + getLockContentions()
+            + " cache.hits=" + getCacheHits()
+            + " cache.misses=" + getCacheMisses()
+            + String.format(" cache.hitRate=%.3f", getCacheHitRate())
+            + " sessionCreate.p50us=" + create.percentile(50) / 1000
+            + " sessionCreate.p99us=" + create.percentile(99) / 1000
+            + " move.p50ns=" + move.percentile(50)
+            + " move.p99ns=" + move.percentile(99)
+            + " move.p999ns=" + move.percentile(99.9)
+            + " lockWait.p99ns=" + lockWait.percentile(99);
+    }
+}
@@ -0,0 +1,23 @@
+public interface ServerMetricsMBean {
+    long getSessionsCreated();
+    long getSessionsRemoved();
+    long getSessionsEvicted();
+    long getSessionsActive();
+    long getMovesValid();
+    long getMovesInvalid();
+    long getCompletions();
+    long getCallbackFailures();
+    long getSessionThrottles();
+    long getHostThrottles();
+    long getLockContentions();
+    long getCacheHits();
+    long getCacheMisses();
+    double getCacheHitRate();
+    double getSessionCreateP50Micros();
+    double getSessionCreateP99Micros();
+    double getMoveP50Micros();
+    double getMoveP99Micros();
+    double getMoveP999Micros();
+    double getLockWaitP99Micros();
+    String snapshot();
+}
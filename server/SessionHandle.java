@@ -0,0 +1,57 @@
+import java.io.Serializable;
+import java.rmi.RemoteException;
+
+// What newSudoku returns: a serializable SudokuInterface that forwards every call to
+// the shared GameService with its session token. Clients use it like the old per-game stub.
+public class SessionHandle implements SudokuInterface, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    // Marshalled as the service's stub when sent to a client
+    private final GameServiceInterface service;
+    private final long session;
+
+    public SessionHandle(GameServiceInterface service, long session) {
+        this.service = service;
+        this.session = session;
+    }
+
+    public String[] getPuzzle() throws RemoteException {
+        return service.getPuzzle(session);
+    }
+
+    public boolean makeMove(int row, int col, int number) throws RemoteException {
+        return service.makeMove(session, row, col, number);
+    }
+
+    public boolean isSolved() throws RemoteException {
+        return service.isSolved(session);
+    }
+
+    public MoveResult move(int row, int col, int number) throws RemoteException {
+        return service.move(session, row, col, number);
+    }
+
+    public MoveResult makeMoves(int[] moves) throws RemoteException {
+        return service.makeMoves(session, moves);
+    }
+
+    public byte[] getChangesSince(int version) throws RemoteException {
+        return service.getChangesSince(session, version);
+    }
+
+    public int getCandidates(int row, int col) throws RemoteException {
+        return service.getCandidates(session, row, col);
+    }
+
+    public short[] getAllCandidates() throws RemoteException {
+        return service.getAllCandidates(session);
+    }
+
+    public Hint getHint() throws RemoteException {
+        return service.getHint(session);
+    }
+
+    public void registerCallback(SudokuCallback callback) throws RemoteException {
+        service.registerCallback(session, callback);
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+// Hashed timer wheel over session expiry times. Moves only write the session's
+// lastActivity field; a session is re-checked when its slot comes round and is
+// either evicted or moved to the slot of its new expiry. A session removed by its
+// client is taken out of its slot at once, so the wheel never holds more than the
+// live sessions.
+public class SessionReaper {
+    public interface Evictor {
+        // Returns true if the session was still registered and has now been removed
+        boolean evict(GameSession session);
+    }
+
+    private final long idleTimeoutMillis;
+    private final long tickMillis;
+    private final List<Queue<Entry>> wheel;
+    private final ConcurrentMap<GameSession, Entry> entries = new ConcurrentHashMap<GameSession, Entry>();
+    private final Evictor evictor;
+    private final ScheduledExecutorService timer;
+    private long nextTick;
+
+    public SessionReaper(long idleTimeoutMillis, long tickMillis, Evictor evictor) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.tickMillis = tickMillis;
+        this.evictor = evictor;
+        int slots = (int) (idleTimeoutMillis / tickMillis) + 2;
+        this.wheel = new ArrayList<Queue<Entry>>(slots);
+        for (int i = 0; i < slots; i++) {
+            wheel.add(new ConcurrentLinkedQueue<Entry>());
+        }
+        this.nextTick = System.currentTimeMillis() / tickMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "session-reaper");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    public void start() {
+        timer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    int reaped = advance(System.currentTimeMillis());
+                    if (reaped > 0) {
+                        System.out.println("Reaped " + reaped + " idle session(s)");
+                    }
+                } catch (RuntimeException e) {
+                    System.err.println("Session reaper error: " + e.getMessage());
+                }
+            }
+        }, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        timer.shutdownNow();
+    }
+
+    public void track(GameSession game) {
+        Entry entry = new Entry(game);
+        entries.put(game, entry);
+        schedule(entry, (game.getLastActivity() + idleTimeoutMillis) / tickMillis);
+    }
+
+    // Called when a session is removed or evicted. A slot holds about live sessions /
+    // slots entries, so the linear remove stays short.
+    public void untrack(GameSession game) {
+        Entry entry = entries.remove(game);
+        if (entry != null) {
+            entry.removed = true;
+            wheel.get(entry.slot).remove(entry);
+        }
+    }
+
+    private void schedule(Entry entry, long tick) {
+        int slot = (int) (tick % wheel.size());
+        Queue<Entry> queue = wheel.get(slot);
+        entry.slot = slot;
+        queue.add(entry);
+        // untrack may have searched the old slot while the entry was on its way here
+        if (entry.removed) {
+            queue.remove(entry);
+        }
+    }
+
+    // Processes every slot up to now and returns how many sessions were evicted
+    int advance(long now) {
+        int reaped = 0;
+        long currentTick = now / tickMillis;
+        for (; nextTick <= currentTick; nextTick++) {
+            Queue<Entry> slot = wheel.get((int) (nextTick % wheel.size()));
+            // Only drain what is there now; sessions tracked meanwhile wait for their own tick
+            for (int n = slot.size(); n > 0; n--) {
+                Entry entry = slot.poll();
+                if (entry == null) {
+                    break;
+                }
+                if (entry.removed) {
+                    continue;
+                }
+                long expiresAt = entry.game.getLastActivity() + idleTimeoutMillis;
+                if (expiresAt <= now) {
+                    entries.remove(entry.game, entry);
+                    if (evictor.evict(entry.game)) {
+                        reaped++;
+                    }
+                } else {
+                    schedule(entry, Math.max(expiresAt / tickMillis, nextTick + 1));
+                }
+            }
+        }
+        return reaped;
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Entry {
+        final GameSession game;
+        volatile int slot;
+        volatile boolean removed;
+
+        Entry(GameSession game) {
+            this.game = game;
+        }
+    }
+}
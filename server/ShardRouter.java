@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.nio.charset.Charset;
+import java.rmi.AccessException;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RemoteServer;
+import java.rmi.server.ServerNotActiveException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+// Factory front for several SudokuServer nodes. Each clientId is owned by one node,
+// picked by consistent hashing, and newSudoku returns that node's own session handle,
+// so moves go straight to the node and never through the router.
+//
+// Adding a node only moves the share of new sessions that hash to it. Existing
+// sessions stay where they were created: the router keeps every earlier ring and
+// looks a session up on its owners in them, newest first.
+//
+// Clients only ever see the factory. Nodes are managed through a separate Admin
+// object, which only accepts addNode from the router's own host.
+public class ShardRouter extends UnicastRemoteObject implements FabSudokuInterface {
+    // Points per node on the ring; more points even out the shares
+    public static final int VIRTUAL_NODES = Integer.getInteger("sudoku.shard.virtualNodes", 128);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Newest first; only replaced, never changed in place
+    private volatile Ring[] rings = new Ring[0];
+
+    public ShardRouter(String... addresses) throws RemoteException {
+        super();
+        for (String address : addresses) {
+            addNode(address);
+        }
+    }
+
+    // "host:port" of a node's registry, where its factory is bound as SudokuFactory
+    public synchronized void addNode(String address) throws RemoteException {
+        Ring current = rings.length == 0 ? null : rings[0];
+        if (current != null && current.find(address) != null) {
+            throw new RemoteException("Node already in the ring: " + address);
+        }
+        Node node = Node.connect(address);
+        Node[] nodes = current == null ? new Node[0] : current.nodes;
+        nodes = Arrays.copyOf(nodes, nodes.length + 1);
+        nodes[nodes.length - 1] = node;
+
+        Ring[] next = new Ring[rings.length + 1];
+        next[0] = new Ring(nodes);
+        System.arraycopy(rings, 0, next, 1, rings.length);
+        rings = next;
+        System.out.println("Shard node added: " + address + " (" + nodes.length + " nodes)");
+    }
+
+    String[] nodes() throws RemoteException {
+        Node[] nodes = current().nodes;
+        String[] addresses = new String[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            addresses[i] = nodes[i].address;
+        }
+        return addresses;
+    }
+
+    String ownerOf(String clientId) throws RemoteException {
+        return current().owner(clientId).address;
+    }
+
+    public SudokuInterface newSudoku(String clientId) throws RemoteException {
+        return ownerOfNew(clientId).factory.newSudoku(clientId);
+    }
+
+    public SudokuInterface newSudoku(String clientId, String difficulty) throws RemoteException {
+        return ownerOfNew(clientId).factory.newSudoku(clientId, difficulty);
+    }
+
+    // The current owner, once no owner in an earlier ring still holds a session for the id;
+    // otherwise the id would be live twice and resumeSudoku and removeClient would see both.
+    // A node that cannot be asked fails the call rather than risk the duplicate.
+    private Node ownerOfNew(String clientId) throws RemoteException {
+        List<Node> owners = owners(clientId);
+        for (int i = 1; i < owners.size(); i++) {
+            try {
+                owners.get(i).factory.resumeSudoku(clientId);
+            } catch (ServerException e) {
+                // The node answered: no game for this client
+                continue;
+            }
+            throw new RemoteException("Client ID already exists");
+        }
+        return owners.get(0);
+    }
+
+    public SudokuInterface resumeSudoku(String clientId) throws RemoteException {
+        RemoteException failure = null;
+        for (Node node : owners(clientId)) {
+            try {
+                return node.factory.resumeSudoku(clientId);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    // A board lives on the node its id hashed to when it opened, which may predate the current ring
+    public SudokuInterface joinCoop(String boardId, String clientId) throws RemoteException {
+        List<Node> owners = owners(boardId);
+        for (int i = 1; i < owners.size(); i++) {
+            if (owners.get(i).factory.hasCoopBoard(boardId)) {
+                return owners.get(i).factory.joinCoop(boardId, clientId);
+            }
+        }
+        return owners.get(0).factory.joinCoop(boardId, clientId);
+    }
+
+    public void leaveCoop(String boardId, String clientId) throws RemoteException {
+        RemoteException failure = null;
+        for (Node node : owners(boardId)) {
+            try {
+                node.factory.leaveCoop(boardId, clientId);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public boolean hasCoopBoard(String boardId) throws RemoteException {
+        for (Node node : owners(boardId)) {
+            if (node.factory.hasCoopBoard(boardId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void watch(String clientId, SudokuWatcher watcher) throws RemoteException {
+        RemoteException failure = null;
+        for (Node node : owners(clientId)) {
+            try {
+                node.factory.watch(clientId, watcher);
+                return;
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    public void watchAll(SudokuWatcher watcher) throws RemoteException {
+        RemoteException failure = null;
+        for (Node node : current().nodes) {
+            try {
+                node.factory.watchAll(watcher);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public void unwatch(SudokuWatcher watcher) throws RemoteException {
+        RemoteException failure = null;
+        for (Node node : current().nodes) {
+            try {
+                node.factory.unwatch(watcher);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    // removeClient is a no-op where the session does not exist, so every possible owner is
+    // told, even when one of them cannot be reached; the last failure is rethrown after
+    public void removeClient(String clientId) throws RemoteException {
+        RemoteException failure = null;
+        for (Node node : owners(clientId)) {
+            try {
+                node.factory.removeClient(clientId);
+            } catch (RemoteException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private Ring current() throws RemoteException {
+        Ring[] r = rings;
+        if (r.length == 0) {
+            throw new RemoteException("No shard nodes configured");
+        }
+        return r[0];
+    }
+
+    // Distinct owners of the client across all rings, current owner first
+    private List<Node> owners(String clientId) throws RemoteException {
+        Ring[] r = rings;
+        if (r.length == 0) {
+            throw new RemoteException("No shard nodes configured");
+        }
+        List<Node> owners = new ArrayList<Node>(2);
+        for (Ring ring : r) {
+            Node node = ring.owner(clientId);
+            if (!owners.contains(node)) {
+                owners.add(node);
+            }
+        }
+        return owners;
+    }
+
+    // Bound as ShardAdmin next to the factory
+    public static final class Admin extends UnicastRemoteObject implements ShardRouterInterface {
+        private final ShardRouter router;
+
+        public Admin(ShardRouter router) throws RemoteException {
+            super();
+            this.router = router;
+        }
+
+        public void addNode(String address) throws RemoteException {
+            requireLocalCaller();
+            router.addNode(address);
+        }
+
+        public String[] nodes() throws RemoteException {
+            return router.nodes();
+        }
+
+        public String ownerOf(String clientId) throws RemoteException {
+            return router.ownerOf(clientId);
+        }
+
+        // Anyone who can add a node receives a share of all new sessions
+        private static void requireLocalCaller() throws RemoteException {
+            String host;
+            try {
+                host = RemoteServer.getClientHost();
+            } catch (ServerNotActiveException e) {
+                // Called in-process
+                return;
+            }
+            try {
+                InetAddress caller = InetAddress.getByName(host);
+                if (caller.isLoopbackAddress() || NetworkInterface.getByInetAddress(caller) != null) {
+                    return;
+                }
+            } catch (IOException e) {
+                // Treated as remote
+            }
+            throw new AccessException("Shard nodes can only be added from the router's host, not " + host);
+        }
+    }
+
+    static final class Node {
+        final String address;
+        final FabSudokuInterface factory;
+
+        private Node(String address, FabSudokuInterface factory) {
+            this.address = address;
+            this.factory = factory;
+        }
+
+        static Node connect(String address) throws RemoteException {
+            int colon = address.lastIndexOf(':');
+            String host = colon < 0 ? address : address.substring(0, colon);
+            int port = colon < 0 ? Registry.REGISTRY_PORT : Integer.parseInt(address.substring(colon + 1));
+            try {
+                Registry registry = LocateRegistry.getRegistry(host, port);
+                return new Node(address, (FabSudokuInterface) registry.lookup("SudokuFactory"));
+            } catch (NotBoundException e) {
+                throw new RemoteException("No SudokuFactory bound at " + address);
+            }
+        }
+    }
+
+    // Sorted hash points, each owned by a node
+    static final class Ring {
+        final Node[] nodes;
+        private final long[] points;
+        private final Node[] owners;
+
+        Ring(Node[] nodes) {
+            this.nodes = nodes;
+            int n = nodes.length * VIRTUAL_NODES;
+            final long[] hashes = new long[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                hashes[i] = hash(nodes[i / VIRTUAL_NODES].address + "#" + i % VIRTUAL_NODES);
+                order[i] = i;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare(Integer a, Integer b) {
+                    return Long.compare(hashes[a], hashes[b]);
+                }
+            });
+            this.points = new long[n];
+            this.owners = new Node[n];
+            for (int i = 0; i < n; i++) {
+                points[i] = hashes[order[i]];
+                owners[i] = nodes[order[i] / VIRTUAL_NODES];
+            }
+        }
+
+        // First point at or after the key's hash, wrapping around
+        Node owner(String clientId) {
+            int i = Arrays.binarySearch(points, hash(clientId));
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return owners[i == points.length ? 0 : i];
+        }
+
+        Node find(String address) {
+            for (Node node : nodes) {
+                if (node.address.equals(address)) {
+                    return node;
+                }
+            }
+            return null;
+        }
+    }
+
+    // FNV-1a spreads poorly over short similar strings, so the result is run through a 64-bit finalizer
+    static long hash(String key) {
+        long h = Canonicalizer.fingerprint(key.getBytes(UTF8));
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Adds a node to a running router, from its own host:  java ShardRouter <router-host:port> <node-host:port>
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java ShardRouter <router-host:port> <node-host:port>");
+            System.exit(1);
+        }
+        int colon = args[0].lastIndexOf(':');
+        Registry registry = LocateRegistry.getRegistry(args[0].substring(0, colon),
+            Integer.parseInt(args[0].substring(colon + 1)));
+        ShardRouterInterface router = (ShardRouterInterface) registry.lookup("ShardAdmin");
+        router.addNode(args[1]);
+        System.out.println("Nodes: " + Arrays.toString(router.nodes()));
+    }
+}
@@ -0,0 +1,10 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Node management of a ShardRouter. Bound apart from the factory clients use, as
+// ShardAdmin, and addNode is refused to callers from other hosts.
+public interface ShardRouterInterface extends Remote {
+    void addNode(String address) throws RemoteException;
+    String[] nodes() throws RemoteException;
+    String ownerOf(String clientId) throws RemoteException;
+}
@@ -0,0 +1,112 @@
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Bounded LRU caches of solver work shared by all games. Puzzles are keyed by their
+// exact givens: the canonical form is worked out from the solution grid, so a puzzle
+// has to be solved before it can be canonicalized, and symmetric variants only share
+// that first solve when they are the same givens. Hints are keyed by the board in
+// canonical form, so players on symmetric variants of one co-op puzzle reuse each
+// other's hints; solo games take hints from their own HintTracker instead. Keys are
+// 64-bit fingerprints and every entry keeps its cells, so a fingerprint collision is a miss.
+public class SolutionCache {
+    public static final int SIZE = Integer.getInteger("sudoku.cache.size", 10000);
+
+    private static final SolutionCache SHARED = new SolutionCache(SIZE);
+
+    public static SolutionCache shared() {
+        return SHARED;
+    }
+
+    private static final class PuzzleEntry {
+        final byte[] givens;
+        // Null when the puzzle has no unique solution
+        final byte[] solution;
+        Canonicalizer.Transform transform;
+
+        PuzzleEntry(byte[] givens, byte[] solution) {
+            this.givens = givens;
+            this.solution = solution;
+        }
+    }
+
+    private static final class HintEntry {
+        final byte[] board;
+        final Hint hint;
+
+        HintEntry(byte[] board, Hint hint) {
+            this.board = board;
+            this.hint = hint;
+        }
+    }
+
+    private final ServerMetrics metrics = ServerMetrics.shared();
+    private final Map<Long, PuzzleEntry> puzzles;
+    private final Map<Long, HintEntry> hints;
+
+    public SolutionCache(int size) {
+        this.puzzles = lru(size);
+        this.hints = lru(size);
+    }
+
+    private static <V> Map<Long, V> lru(final int capacity) {
+        return Collections.synchronizedMap(new LinkedHashMap<Long, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, V> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    // The unique solution of the givens, or null if there is none or more than one
+    public byte[] solve(byte[] givens) {
+        PuzzleEntry entry = lookup(givens);
+        if (entry == null) {
+            byte[] solution = new byte[Board.CELLS];
+            entry = new PuzzleEntry(givens.clone(), new Solver().solve(givens, solution, 2) == 1 ? solution : null);
+            puzzles.put(Canonicalizer.fingerprint(givens), entry);
+        }
+        return entry.solution;
+    }
+
+    // Canonicalizing is far dearer than solving, so the transform is worked out once per puzzle
+    public Canonicalizer.Transform transform(byte[] givens, byte[] solution) {
+        PuzzleEntry entry = lookup(givens);
+        if (entry == null) {
+            entry = new PuzzleEntry(givens.clone(), solution);
+            puzzles.put(Canonicalizer.fingerprint(givens), entry);
+        }
+        Canonicalizer.Transform t = entry.transform;
+        if (t == null) {
+            t = new Canonicalizer().transform(givens, solution);
+            entry.transform = t;
+        }
+        return t;
+    }
+
+    // Hint for a board in canonical form, in canonical coordinates; null if not cached
+    public Hint hint(byte[] canonicalBoard) {
+        HintEntry entry = hints.get(Canonicalizer.fingerprint(canonicalBoard));
+        if (entry != null && Arrays.equals(entry.board, canonicalBoard)) {
+            metrics.cacheHits.increment();
+            return entry.hint;
+        }
+        metrics.cacheMisses.increment();
+        return null;
+    }
+
+    public void putHint(byte[] canonicalBoard, Hint canonicalHint) {
+        hints.put(Canonicalizer.fingerprint(canonicalBoard), new HintEntry(canonicalBoard, canonicalHint));
+    }
+
+    private PuzzleEntry lookup(byte[] givens) {
+        PuzzleEntry entry = puzzles.get(Canonicalizer.fingerprint(givens));
+        if (entry != null && Arrays.equals(entry.givens, givens)) {
+            metrics.cacheHits.increment();
+            return entry;
+        }
+        metrics.cacheMisses.increment();
+        return null;
+    }
+}
@@ -0,0 +1,283 @@
+import java.util.Arrays;
+
+public final class Solver {
+    static final int[][] UNITS = new int[27][9];
+    static final int[][] PEERS = new int[Board.CELLS][20];
+
+    private static final int COLUMNS = 4 * Board.CELLS;
+    private static final int MAX_NODES = 1 + COLUMNS + 4 * Board.CELLS * Board.SIZE;
+
+    static {
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                UNITS[i][j] = i * 9 + j;
+                UNITS[9 + i][j] = j * 9 + i;
+                UNITS[18 + i][j] = (i / 3) * 27 + (i % 3) * 3 + (j / 3) * 9 + j % 3;
+            }
+        }
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            int n = 0;
+            for (int other = 0; other < Board.CELLS; other++) {
+                if (other != cell && (Board.ROW[other] == Board.ROW[cell]
+                        || Board.COL[other] == Board.COL[cell] || Board.BOX[other] == Board.BOX[cell])) {
+                    PEERS[cell][n++] = other;
+                }
+            }
+        }
+    }
+
+    // Propagation state
+    private final byte[] cells = new byte[Board.CELLS];
+    private final short[] cand = new short[Board.CELLS];
+
+    // Dancing links state, allocated once per solver and reused between puzzles
+    private final int[] left = new int[MAX_NODES];
+    private final int[] right = new int[MAX_NODES];
+    private final int[] up = new int[MAX_NODES];
+    private final int[] down = new int[MAX_NODES];
+    private final int[] column = new int[MAX_NODES];
+    private final int[] choice = new int[MAX_NODES];
+    private final int[] size = new int[COLUMNS + 1];
+    private final int[] stack = new int[Board.CELLS];
+    private final byte[] best = new byte[Board.CELLS];
+    private final boolean[] active = new boolean[COLUMNS + 1];
+    private final int[] open = new int[4];
+    private int found;
+    private int limit;
+
+    public static boolean hasUniqueSolution(byte[] puzzle) {
+        return new Solver().solve(puzzle, null, 2) == 1;
+    }
+
+    // Returns the number of solutions found, stopping once limit is reached.
+    // The first solution found is copied into solution when it is non-null.
+    public int solve(byte[] puzzle, byte[] solution, int limit) {
+        this.limit = limit;
+        this.found = 0;
+        if (!load(puzzle) || !propagate()) {
+            return 0;
+        }
+        System.arraycopy(cells, 0, best, 0, Board.CELLS);
+        int empty = 0;
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (cells[cell] == 0) {
+                empty++;
+            }
+        }
+        if (empty == 0) {
+            found = 1;
+        } else {
+            buildLinks();
+            search(0);
+        }
+        if (found > 0 && solution != null) {
+            System.arraycopy(best, 0, solution, 0, Board.CELLS);
+        }
+        return found;
+    }
+
+    private boolean load(byte[] puzzle) {
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            cells[cell] = 0;
+            cand[cell] = Board.ALL_DIGITS;
+        }
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            int digit = puzzle[cell];
+            if (digit != 0 && !place(cell, digit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean place(int cell, int digit) {
+        int bit = 1 << digit;
+        if ((cand[cell] & bit) == 0) {
+            return false;
+        }
+        cells[cell] = (byte) digit;
+        cand[cell] = 0;
+        int[] peers = PEERS[cell];
+        for (int i = 0; i < peers.length; i++) {
+            cand[peers[i]] &= ~bit;
+        }
+        return true;
+    }
+
+    // Naked and hidden singles until a fixpoint; false on contradiction
+    private boolean propagate() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int cell = 0; cell < Board.CELLS; cell++) {
+                if (cells[cell] != 0) {
+                    continue;
+                }
+                int mask = cand[cell];
+                if (mask == 0) {
+                    return false;
+                }
+                if ((mask & (mask - 1)) == 0) {
+                    place(cell, Integer.numberOfTrailingZeros(mask));
+                    changed = true;
+                }
+            }
+            for (int u = 0; u < UNITS.length; u++) {
+                int[] unit = UNITS[u];
+                int once = 0;
+                int twice = 0;
+                int placed = 0;
+                for (int i = 0; i < 9; i++) {
+                    int cell = unit[i];
+                    if (cells[cell] != 0) {
+                        placed |= 1 << cells[cell];
+                    } else {
+                        twice |= once & cand[cell];
+                        once |= cand[cell];
+                    }
+                }
+                if ((once | placed) != Board.ALL_DIGITS) {
+                    return false;
+                }
+                int singles = once & ~twice;
+                while (singles != 0) {
+                    int digit = Integer.numberOfTrailingZeros(singles);
+                    singles &= singles - 1;
+                    for (int i = 0; i < 9; i++) {
+                        int cell = unit[i];
+                        if ((cand[cell] & (1 << digit)) != 0) {
+                            if (!place(cell, digit)) {
+                                return false;
+                            }
+                            changed = true;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private void buildLinks() {
+        // Header 0 is the root; headers 1..COLUMNS are linked only if their constraint is still open
+        left[0] = right[0] = 0;
+        for (int c = 1; c <= COLUMNS; c++) {
+            up[c] = down[c] = c;
+            size[c] = 0;
+        }
+        int[] open = this.open;
+        boolean[] active = this.active;
+        Arrays.fill(active, false);
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (cells[cell] != 0) {
+                continue;
+            }
+            for (int mask = cand[cell]; mask != 0; mask &= mask - 1) {
+                int digit = Integer.numberOfTrailingZeros(mask);
+                constraints(cell, digit, open);
+                for (int k = 0; k < 4; k++) {
+                    active[open[k]] = true;
+                }
+            }
+        }
+        int last = 0;
+        for (int c = 1; c <= COLUMNS; c++) {
+            if (active[c]) {
+                right[last] = c;
+                left[c] = last;
+                last = c;
+            }
+        }
+        right[last] = 0;
+        left[0] = last;
+
+        int node = COLUMNS + 1;
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (cells[cell] != 0) {
+                continue;
+            }
+            for (int mask = cand[cell]; mask != 0; mask &= mask - 1) {
+                int digit = Integer.numberOfTrailingZeros(mask);
+                constraints(cell, digit, open);
+                int first = node;
+                for (int k = 0; k < 4; k++, node++) {
+                    int c = open[k];
+                    column[node] = c;
+                    choice[node] = cell * 16 + digit;
+                    up[node] = up[c];
+                    down[node] = c;
+                    down[up[c]] = node;
+                    up[c] = node;
+                    size[c]++;
+                    left[node] = k == 0 ? node + 3 : node - 1;
+                    right[node] = k == 3 ? first : node + 1;
+                }
+            }
+        }
+    }
+
+    private static void constraints(int cell, int digit, int[] out) {
+        int d = digit - 1;
+        out[0] = 1 + cell;
+        out[1] = 1 + Board.CELLS + Board.ROW[cell] * 9 + d;
+        out[2] = 1 + 2 * Board.CELLS + Board.COL[cell] * 9 + d;
+        out[3] = 1 + 3 * Board.CELLS + Board.BOX[cell] * 9 + d;
+    }
+
+    private void search(int depth) {
+        if (right[0] == 0) {
+            if (found++ == 0) {
+                for (int i = 0; i < depth; i++) {
+                    best[choice[stack[i]] >> 4] = (byte) (choice[stack[i]] & 15);
+                }
+            }
+            return;
+        }
+        int col = right[0];
+        for (int c = right[col]; c != 0 && size[col] > 1; c = right[c]) {
+            if (size[c] < size[col]) {
+                col = c;
+            }
+        }
+        if (size[col] == 0) {
+            return;
+        }
+        cover(col);
+        for (int r = down[col]; r != col && found < limit; r = down[r]) {
+            stack[depth] = r;
+            for (int j = right[r]; j != r; j = right[j]) {
+                cover(column[j]);
+            }
+            search(depth + 1);
+            for (int j = left[r]; j != r; j = left[j]) {
+                uncover(column[j]);
+            }
+        }
+        uncover(col);
+    }
+
+    private void cover(int c) {
+        right[left[c]] = right[c];
+        left[right[c]] = left[c];
+        for (int i = down[c]; i != c; i = down[i]) {
+            for (int j = right[i]; j != i; j = right[j]) {
+                up[down[j]] = up[j];
+                down[up[j]] = down[j];
+                size[column[j]]--;
+            }
+        }
+    }
+
+    private void uncover(int c) {
+        for (int i = up[c]; i != c; i = up[i]) {
+            for (int j = left[i]; j != i; j = left[j]) {
+                size[column[j]]++;
+                up[down[j]] = j;
+                down[up[j]] = j;
+            }
+        }
+        right[left[c]] = c;
+        left[right[c]] = c;
+    }
+}
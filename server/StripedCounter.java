@@ -0,0 +1,38 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Java 7 stand-in for LongAdder: each thread adds to a stripe picked by its id, and
+// the stripes sit a cache line apart so concurrent increments rarely collide.
+public final class StripedCounter {
+    static final int STRIPES = stripes();
+    private static final int PAD = 8; // longs per 64-byte cache line
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    static int stripes() {
+        int n = 1;
+        while (n < Runtime.getRuntime().availableProcessors() && n < 64) {
+            n <<= 1;
+        }
+        return n;
+    }
+
+    static int stripe() {
+        return (int) (Thread.currentThread().getId() & (STRIPES - 1));
+    }
+
+    public void increment() {
+        cells.getAndIncrement(stripe() * PAD);
+    }
+
+    public void add(long delta) {
+        cells.getAndAdd(stripe() * PAD, delta);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+}
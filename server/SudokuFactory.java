@@ -30,32 +30,16 @@ public class SudokuFactory {
     }
 
     public static String[][] createSolutions() {
-        // Corresponding solutions
-        String[][] solutions = {
-            {
-                "387491625",
-                "241568379",
-                "569327418",
-                "758619234",
-                "123784596",
-                "496253187",
-                "934176852",
-                "675832941",
-                "812945763"
-            },
-            {
-                "534678912",
-                "672195348",
-                "198342567",
-                "859761423",
-                "426853791",
-                "713924856",
-                "961537284",
-                "287419635",
-                "345286179"
-            },
-            // Add more solutions here
-        };
+        // Solutions are computed from the puzzles, which must each have exactly one
+        String[][] puzzles = createPuzzles();
+        String[][] solutions = new String[puzzles.length][];
+        for (int i = 0; i < puzzles.length; i++) {
+            byte[] solution = SolutionCache.shared().solve(Board.toBytes(puzzles[i]));
+            if (solution == null) {
+                throw new IllegalStateException("Puzzle " + i + " has no unique solution");
+            }
+            solutions[i] = new Board(solution).toRows();
+        }
         return solutions;
     }
 }
\ No newline at end of file
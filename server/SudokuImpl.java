@@ -1,31 +1,127 @@
+import java.nio.ByteBuffer;
 import java.rmi.*;
-import java.rmi.server.*;
-import java.util.Random;
+import java.util.Arrays;
 import java.util.concurrent.locks.ReentrantLock;
 
-public class SudokuImpl extends UnicastRemoteObject implements SudokuInterface {
+// A plain in-memory game; remote clients reach it through GameService by session token
+public class SudokuImpl implements GameSession {
+    // Changes kept for delta sync; clients further behind than this get a full snapshot
+    private static final int CHANGE_LOG_SIZE = 32;
+    // Built once so rejecting a move does not allocate a message
+    static final String[] INVALID_MOVE = new String[Board.CELLS];
+
+    static {
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            INVALID_MOVE[cell] = "Invalid move at row " + (cell / 9 + 1) + ", column " + (cell % 9 + 1);
+        }
+    }
+
+    private final ServerMetrics metrics = ServerMetrics.shared();
+
     private final String clientId;
-    private final String[] puzzle;
-    private final String[] solution;
-    private volatile SudokuCallback callback;
+    private final Board board;
+    private final byte[] givens;
+    private final byte[] solution;
+    private final Difficulty difficulty;
+    // Null when journaling is disabled; appended to only while the lock is held
+    private final GameJournal.SessionLog log;
+    private final CallbackDispatcher.Channel callbacks;
     private final ReentrantLock lock = new ReentrantLock();
-    private static final Random random = new Random();
+    // Null when session rate limits are off
+    private RateLimiter limiter = RateLimiter.forSession();
+    private int errors;
+    private int version;
+    private final short[] changes = new short[CHANGE_LOG_SIZE];
+    // Made on the first hint request, then kept up to date by apply()
+    private HintTracker hints;
+    // Wall-clock time of the last client call, read by the idle session reaper
+    private volatile long lastActivity = System.currentTimeMillis();
+    // Assigned by GameService.register
+    private long token;
+    // Spectator feed; null for games made outside a factory
+    private volatile BroadcastHub.Topic topic;
 
-    public SudokuImpl(String clientId) throws RemoteException {
-        super();
+    public SudokuImpl(String clientId, Puzzle puzzle, CallbackDispatcher dispatcher) {
+        this(clientId, puzzle, dispatcher, null);
+    }
+
+    public SudokuImpl(String clientId, Puzzle puzzle, CallbackDispatcher dispatcher, GameJournal journal) {
         this.clientId = clientId;
-        String[][] puzzles = SudokuFactory.createPuzzles();
-        String[][] solutions = SudokuFactory.createSolutions();
-        int index = random.nextInt(puzzles.length);
-        this.puzzle = puzzles[index].clone();
-        this.solution = solutions[index].clone();
+        this.callbacks = dispatcher.newChannel(clientId);
+        this.board = new Board(puzzle.givens());
+        this.givens = puzzle.givens();
+        this.solution = puzzle.solution();
+        this.difficulty = puzzle.difficulty();
+        this.log = journal == null ? null : journal.newLog();
+    }
+
+    // Rebuilds a game recovered from the journal; its log continues where the old one stopped
+    public SudokuImpl(GameJournal.SessionState state, CallbackDispatcher dispatcher, GameJournal journal) {
+        this.clientId = state.clientId;
+        this.callbacks = dispatcher.newChannel(clientId);
+        this.board = new Board(state.cells);
+        this.givens = state.givens;
+        this.solution = state.solution;
+        this.difficulty = state.difficulty;
+        this.errors = state.errors;
+        this.log = journal.reopen(state);
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public long getLastActivity() {
+        return lastActivity;
+    }
+
+    public long getToken() {
+        return token;
+    }
+
+    public void setToken(long token) {
+        this.token = token;
+    }
+
+    BroadcastHub.Topic getTopic() {
+        return topic;
+    }
+
+    void setTopic(BroadcastHub.Topic topic) {
+        this.topic = topic;
+    }
+
+    // Copy of the board and change ring for spectators, taken in one short critical section
+    BroadcastHub.Frame watchFrame() {
+        lock.lock();
+        try {
+            return new BroadcastHub.Frame(version, BoardSync.full(version, board), changes.clone());
+        } finally {
+            lock.unlock();
+        }
     }
 
     @Override
     public String[] getPuzzle() throws RemoteException {
+        lastActivity = System.currentTimeMillis();
+        lock.lock();
+        try {
+            return board.toRows();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public byte[] getChangesSince(int since) throws RemoteException {
+        lastActivity = System.currentTimeMillis();
         lock.lock();
         try {
-            return puzzle.clone();
+            int gap = version - since;
+            if (since < 0 || gap < 0 || gap > CHANGE_LOG_SIZE) {
+                return BoardSync.full(version, board);
+            }
+            return BoardSync.delta(since, version, changes);
         } finally {
             lock.unlock();
         }
@@ -33,78 +129,313 @@ public class SudokuImpl extends UnicastRemoteObject implements SudokuInterface {
 
     @Override
     public boolean makeMove(int row, int col, int number) throws RemoteException {
-        if (row < 0 || row >= 9 || col < 0 || col >= 9 || number < 1 || number > 9) {
-            notifyErrorSafe("Invalid move coordinates");
+        long start = System.nanoTime();
+        lastActivity = System.currentTimeMillis();
+        if (throttled(1)) {
             return false;
         }
+        lockForMove();
+        try {
+            return apply(row, col, number) == MoveResult.ACCEPTED;
+        } finally {
+            lock.unlock();
+            metrics.moveNanos.record(System.nanoTime() - start);
+        }
+    }
 
-        lock.lock();
+    @Override
+    public MoveResult move(int row, int col, int number) throws RemoteException {
+        long start = System.nanoTime();
+        lastActivity = System.currentTimeMillis();
+        if (throttled(1)) {
+            return MoveResult.throttled(1);
+        }
+        byte status;
+        int errorCount;
+        boolean solved;
+        lockForMove();
         try {
-            if (solution[row].charAt(col) == (char)(number + '0')) {
-                puzzle[row] = puzzle[row].substring(0, col) + number + puzzle[row].substring(col + 1);
-                if (isSolved()) {
-                    notifyCompletionSafe();
-                }
-                return true;
+            status = apply(row, col, number);
+            errorCount = errors;
+            solved = board.isComplete();
+        } finally {
+            lock.unlock();
+            metrics.moveNanos.record(System.nanoTime() - start);
+        }
+        return new MoveResult(new byte[] {status}, errorCount, solved);
+    }
+
+    // Allocation-free variant of move() for the binary endpoint: writes status, error count and solved flag
+    void move(int row, int col, int number, ByteBuffer out) {
+        long start = System.nanoTime();
+        lastActivity = System.currentTimeMillis();
+        if (throttled(1)) {
+            out.put(MoveResult.THROTTLED).putInt(-1).put((byte) 0);
+            return;
+        }
+        lockForMove();
+        try {
+            out.put(apply(row, col, number));
+            out.putInt(errors);
+            out.put((byte) (board.isComplete() ? 1 : 0));
+        } finally {
+            lock.unlock();
+            metrics.moveNanos.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public MoveResult makeMoves(int[] moves) throws RemoteException {
+        if (moves == null || moves.length % 3 != 0) {
+            throw new RemoteException("Moves must be given as (row, col, number) triples");
+        }
+        lastActivity = System.currentTimeMillis();
+        // A batch beyond the burst is applied up to the budget; the rest comes back THROTTLED
+        int admitted = admitted(moves.length / 3);
+        if (admitted == 0) {
+            return MoveResult.throttled(moves.length / 3);
+        }
+        byte[] status = new byte[moves.length / 3];
+        Arrays.fill(status, admitted, status.length, MoveResult.THROTTLED);
+        lockForMove();
+        try {
+            for (int i = 0; i < admitted; i++) {
+                status[i] = apply(moves[3 * i], moves[3 * i + 1], moves[3 * i + 2]);
             }
-            notifyErrorSafe("Invalid move at row " + (row+1) + ", column " + (col+1));
-            return false;
+            return new MoveResult(status, errors, board.isComplete());
         } finally {
             lock.unlock();
         }
     }
 
+    // For in-process games that play far faster than any client may; call before sharing the game
+    void unlimited() {
+        limiter = null;
+    }
+
+    // Checked before the lock, so a client over its budget costs one CAS and never a callback
+    private boolean throttled(int moves) {
+        if (limiter == null || limiter.tryAcquire(moves)) {
+            return false;
+        }
+        metrics.sessionThrottles.increment();
+        return true;
+    }
+
+    // How many of the moves the session's budget admits now
+    private int admitted(int moves) {
+        if (limiter == null) {
+            return moves;
+        }
+        int admitted = limiter.acquireUpTo(moves);
+        if (admitted < moves) {
+            metrics.sessionThrottles.increment();
+        }
+        return admitted;
+    }
+
+    // Times the wait only when the lock is actually contended
+    private void lockForMove() {
+        if (!lock.tryLock()) {
+            long start = System.nanoTime();
+            lock.lock();
+            metrics.lockContentions.increment();
+            metrics.lockWaitNanos.record(System.nanoTime() - start);
+        }
+    }
+
+    // Must be called with the lock held
+    private byte apply(int row, int col, int number) {
+        if (row < 0 || row >= 9 || col < 0 || col >= 9 || number < 1 || number > 9) {
+            errors++;
+            metrics.movesInvalid.increment();
+            if (log != null) {
+                log.error();
+            }
+            callbacks.error("Invalid move coordinates");
+            return MoveResult.REJECTED;
+        }
+        int cell = row * Board.SIZE + col;
+        if (solution[cell] != number) {
+            errors++;
+            metrics.movesInvalid.increment();
+            if (log != null) {
+                log.error();
+            }
+            callbacks.error(INVALID_MOVE[cell]);
+            return MoveResult.REJECTED;
+        }
+        metrics.movesValid.increment();
+        if (board.get(cell) != number) {
+            board.set(cell, number);
+            changes[version % CHANGE_LOG_SIZE] = (short) (cell << 4 | number);
+            version++;
+            if (hints != null) {
+                hints.placed(cell, number);
+            }
+            if (log != null) {
+                log.move(cell, number);
+            }
+            BroadcastHub.Topic t = topic;
+            if (t != null) {
+                t.changed();
+            }
+            if (board.isComplete()) {
+                metrics.completions.increment();
+                callbacks.completion();
+            }
+        }
+        return MoveResult.ACCEPTED;
+    }
+
     @Override
     public boolean isSolved() throws RemoteException {
         lock.lock();
         try {
-            for (int i = 0; i < 9; i++) {
-                if (!puzzle[i].equals(solution[i])) {
-                    return false;
-                }
+            // Only digits matching the solution are ever placed, so a full board is a solved one
+            return board.isComplete();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getCandidates(int row, int col) throws RemoteException {
+        if (row < 0 || row >= 9 || col < 0 || col >= 9) {
+            throw new RemoteException("Invalid cell " + row + ", " + col);
+        }
+        lastActivity = System.currentTimeMillis();
+        lock.lock();
+        try {
+            // The board keeps per-unit digit masks up to date on every move, so this is a lookup
+            return board.candidates(row * Board.SIZE + col);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public short[] getAllCandidates() throws RemoteException {
+        lastActivity = System.currentTimeMillis();
+        short[] masks = new short[Board.CELLS];
+        lock.lock();
+        try {
+            for (int cell = 0; cell < Board.CELLS; cell++) {
+                masks[cell] = (short) board.candidates(cell);
             }
-            return true;
         } finally {
             lock.unlock();
         }
+        return masks;
     }
 
     @Override
-    public synchronized void registerCallback(SudokuCallback callback) throws RemoteException {
-        // Clear previous callback reference
-        this.callback = null;
-        
-        // Set new callback
-        if (callback != null) {
-            this.callback = callback;
+    public Hint getHint() throws RemoteException {
+        lastActivity = System.currentTimeMillis();
+        lock.lock();
+        try {
+            if (hints == null) {
+                hints = new HintTracker(board.toBytes(), solution);
+            }
+            return hints.next(board);
+        } finally {
+            lock.unlock();
         }
     }
 
-    private void notifyCompletionSafe() {
-        SudokuCallback cb = this.callback;
-        if (cb != null) {
-            try {
-                cb.notifyCompletion();
-            } catch (RemoteException e) {
-                System.err.println("Error notifying completion: " + e.getMessage());
-                this.callback = null;
+    // For boards without a HintTracker, such as co-op boards that many players fill at
+    // once: symmetric variants of this puzzle share cached hints through their canonical form
+    static Hint nextHint(byte[] givens, byte[] solution, byte[] cells) {
+        SolutionCache cache = SolutionCache.shared();
+        Canonicalizer.Transform t = cache.transform(givens, solution);
+        byte[] canonical = new byte[Board.CELLS];
+        t.toCanonical(cells, canonical);
+        Hint cached = cache.hint(canonical);
+        if (cached != null) {
+            int cell = t.cell(cached.getRow() * Board.SIZE + cached.getCol());
+            return new Hint(cell / Board.SIZE, cell % Board.SIZE, t.digit(cached.getDigit()), cached.getTechnique());
+        }
+        Hint next = solveHint(solution, cells);
+        int cell = t.canonicalCell(next.getRow() * Board.SIZE + next.getCol());
+        cache.putHint(canonical, new Hint(cell / Board.SIZE, cell % Board.SIZE,
+            t.canonicalDigit(next.getDigit()), next.getTechnique()));
+        return next;
+    }
+
+    private static Hint solveHint(byte[] solution, byte[] cells) {
+        LogicalSolver solver = new LogicalSolver();
+        solver.load(cells);
+        Technique hardest = null;
+        Technique t;
+        while ((t = solver.step()) != null) {
+            if (hardest == null || t.difficulty().compareTo(hardest.difficulty()) > 0) {
+                hardest = t;
+            }
+            if (solver.lastCell() >= 0) {
+                int cell = solver.lastCell();
+                return new Hint(cell / Board.SIZE, cell % Board.SIZE, solver.lastDigit(), hardest.name());
             }
         }
+        // Beyond the techniques we know: reveal the most constrained open cell
+        int best = -1;
+        for (int cell = 0; cell < Board.CELLS; cell++) {
+            if (cells[cell] == 0 && (best < 0
+                    || Integer.bitCount(solver.candidates(cell)) < Integer.bitCount(solver.candidates(best)))) {
+                best = cell;
+            }
+        }
+        return new Hint(best / Board.SIZE, best % Board.SIZE, solution[best], null);
+    }
+
+    @Override
+    public void registerCallback(SudokuCallback callback) throws RemoteException {
+        // Replaces any previous callback; notifications are delivered asynchronously
+        callbacks.register(callback);
     }
 
-    private void notifyErrorSafe(String message) {
-        SudokuCallback cb = this.callback;
-        if (cb != null) {
+    // Called once the game is registered, so a snapshot either contains it or follows its OPEN record
+    void journalOpen() {
+        if (log != null) {
+            lock.lock();
             try {
-                cb.notifyError(message);
-            } catch (RemoteException e) {
-                System.err.println("Error notifying error: " + e.getMessage());
-                this.callback = null;
+                log.open(clientId, givens, solution, difficulty);
+            } finally {
+                lock.unlock();
             }
         }
     }
 
-    public synchronized void cleanup() {
-        this.callback = null;
+    // Consistent copy of the game for a journal snapshot; null when journaling is disabled
+    GameJournal.SessionState captureState() {
+        if (log == null) {
+            return null;
+        }
+        GameJournal.SessionState state = new GameJournal.SessionState();
+        lock.lock();
+        try {
+            state.id = log.id();
+            state.seq = log.nextSeq();
+            state.errors = errors;
+            state.cells = board.toBytes();
+        } finally {
+            lock.unlock();
+        }
+        state.clientId = clientId;
+        state.givens = givens;
+        state.solution = solution;
+        state.difficulty = difficulty;
+        return state;
+    }
+
+    public void cleanup() {
+        callbacks.close();
+        if (log != null) {
+            lock.lock();
+            try {
+                log.close();
+            } finally {
+                lock.unlock();
+            }
+        }
     }
 }
\ No newline at end of file
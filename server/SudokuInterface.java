@@ -6,5 +6,16 @@ public interface SudokuInterface extends Remote {
     String[] getPuzzle() throws RemoteException;
     boolean makeMove(int row, int col, int number) throws RemoteException;
     boolean isSolved() throws RemoteException;
+    // Same as makeMove but also reports the error count and whether the board is now solved
+    MoveResult move(int row, int col, int number) throws RemoteException;
+    // moves holds (row, col, number) triples, applied in order under one call
+    MoveResult makeMoves(int[] moves) throws RemoteException;
+    // Board changes after the given version, encoded as described in BoardSync; pass -1 on first load
+    byte[] getChangesSince(int version) throws RemoteException;
+    // Pencil marks: bit d set when digit d can still go in the cell; 0 for a filled cell
+    int getCandidates(int row, int col) throws RemoteException;
+    short[] getAllCandidates() throws RemoteException;
+    // Next placement a logical solver would make; null once the board is solved
+    Hint getHint() throws RemoteException;
     void registerCallback(SudokuCallback callback) throws RemoteException;
 }
\ No newline at end of file
@@ -2,10 +2,28 @@ import java.rmi.*;
 import java.rmi.registry.*;
 import java.rmi.server.UnicastRemoteObject;
 import java.rmi.server.RMIClassLoader;
+import java.rmi.server.RMISocketFactory;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
 
 public class SudokuServer {
+    // Serve the codebase from this process on the given port instead of an external web server
+    private static final Integer CODEBASE_PORT = Integer.getInteger("sudoku.codebase.port");
+    // In-process games played before the registry binds, so the hot paths are compiled by then
+    private static final int WARMUP_GAMES = Integer.getInteger("sudoku.warmup.games", 0);
+    // Lets several nodes share one host
+    private static final int REGISTRY_PORT = Integer.getInteger("sudoku.registry.port", Registry.REGISTRY_PORT);
+    // Comma-separated host:port registries of the nodes; when set this process only routes
+    private static final String SHARD_NODES = System.getProperty("sudoku.shard.nodes");
+
     public static void main(String[] args) {
+        long started = System.nanoTime();
         try {
             // Set security policy
             System.setProperty("java.security.policy", "server.policy");
@@ -13,29 +31,101 @@ public class SudokuServer {
                 System.setSecurityManager(new SecurityManager());
             }
             
-            // Set codebase for dynamic class loading
-            System.setProperty("java.rmi.server.codebase", "http://"+args[0]+"/classes/");
-             System.setProperty("java.rmi.server.hostname", args[0]);
-            // Verify codebase is accessible
-            try {
-                new URL(System.getProperty("java.rmi.server.codebase") + "FabSudokuInterface.class").openConnection().connect();
-                System.out.println("Server codebase accessible");
-            } catch (Exception e) {
-                System.err.println("Cannot access server codebase: " + e.getMessage());
-                return;
-            }
-
-            // Create and export the factory
-            FabSudokuImpl factory = new FabSudokuImpl();
+            System.setProperty("java.rmi.server.hostname", args[0]);
+            final CodebaseServer codebase;
+            if (CODEBASE_PORT != null) {
+                // Self-contained: the interfaces clients need are served from this process
+                codebase = new CodebaseServer(CODEBASE_PORT);
+                codebase.preload("FabSudokuInterface", "SudokuInterface", "SudokuCallback", "SudokuWatcher",
+                    "GameServiceInterface", "SessionHandle", "MoveResult", "Hint");
+                codebase.start();
+                System.setProperty("java.rmi.server.codebase",
+                    "http://" + args[0] + ":" + codebase.port() + CodebaseServer.PATH);
+            } else {
+                codebase = null;
+                // Set codebase for dynamic class loading
+                System.setProperty("java.rmi.server.codebase", "http://"+args[0]+"/classes/");
+                // Verify codebase is accessible
+                try {
+                    URLConnection probe = new URL(System.getProperty("java.rmi.server.codebase") + "FabSudokuInterface.class").openConnection();
+                    probe.setConnectTimeout(2000);
+                    probe.setReadTimeout(2000);
+                    probe.connect();
+                    System.out.println("Server codebase accessible");
+                } catch (Exception e) {
+                    System.err.println("Cannot access server codebase: " + e.getMessage());
+                    return;
+                }
+            }
+
+            if (SHARD_NODES != null) {
+                // Router mode: clients get game handles from the owning node and talk to it directly
+                ShardRouter router = new ShardRouter(SHARD_NODES.split(","));
+                Registry registry = LocateRegistry.createRegistry(REGISTRY_PORT);
+                registry.rebind("SudokuFactory", router);
+                registry.rebind("ShardAdmin", new ShardRouter.Admin(router));
+                System.out.println("Shard router ready on port " + REGISTRY_PORT + " for " + SHARD_NODES.split(",").length
+                    + " node(s) in " + (System.nanoTime() - started) / 1000000 + " ms");
+                System.out.println("Server running. Press Ctrl+C to exit.");
+                while (true) {
+                    Thread.sleep(1000);
+                }
+            }
+
+            // A game node only calls out to clients (callbacks, watchers and their DGC), so the
+            // timeouts set here bound exactly those calls. The router above makes its calls to
+            // nodes, which may wait for admission, and keeps the JVM defaults.
+            boundCallbackTimeouts(Integer.getInteger("sudoku.callback.timeoutMillis", 2000));
+
+            // Expose counters over JMX and, if configured, dump them to a file periodically.
+            // Bringing up the platform MBean server is slow, so it runs next to the rest of startup.
+            Thread metricsStart = new Thread("metrics-start") {
+                public void run() {
+                    ServerMetrics.shared().start();
+                }
+            };
+            metricsStart.setDaemon(true);
+            metricsStart.start();
+
+            // Create and export the factory, restoring journaled games if -Dsudoku.journal.dir is set
+            final FabSudokuImpl factory = new FabSudokuImpl(GameJournal.fromProperties());
+
+            // Optional binary endpoint serving the same games without RMI
+            Integer nioPort = Integer.getInteger("sudoku.nio.port");
+            final NioGameServer nio = nioPort == null ? null : new NioGameServer(factory, nioPort);
+            if (nio != null) {
+                nio.start();
+                System.out.println("Binary endpoint listening on port " + nio.port());
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread("server-shutdown") {
+                public void run() {
+                    if (nio != null) {
+                        nio.shutdown();
+                    }
+                    factory.shutdown();
+                    if (codebase != null) {
+                        codebase.shutdown();
+                    }
+                }
+            });
+
+            if (WARMUP_GAMES > 0) {
+                long warmupStart = System.nanoTime();
+                warmUp(WARMUP_GAMES);
+                System.out.println("Warm-up: " + WARMUP_GAMES + " games in "
+                    + (System.nanoTime() - warmupStart) / 1000000 + " ms");
+            }
             
             // Create registry
-            Registry registry = LocateRegistry.createRegistry(1099);
+            Registry registry = LocateRegistry.createRegistry(REGISTRY_PORT);
             
             // Bind the factory
             registry.rebind("SudokuFactory", factory);
             
             System.out.println("Sudoku Factory created and Server ready");
             System.out.println("Codebase: " + System.getProperty("java.rmi.server.codebase"));
+            System.out.println("Ready in " + (System.nanoTime() - started) / 1000000 + " ms ("
+                + ManagementFactory.getRuntimeMXBean().getUptime() + " ms since JVM start)");
              // Keep server running
             System.out.println("Server running. Press Ctrl+C to exit.");
             while (true) {
@@ -47,4 +137,60 @@ public class SudokuServer {
             e.printStackTrace();
         }
     }
+
+    // Bounds how long a callback to a dead or unresponsive client can hold a dispatcher
+    // thread: both the connect (a host that silently drops packets) and the reply.
+    static void boundCallbackTimeouts(final int millis) throws IOException {
+        if (System.getProperty("sun.rmi.transport.tcp.responseTimeout") == null) {
+            System.setProperty("sun.rmi.transport.tcp.responseTimeout", String.valueOf(millis));
+        }
+        RMISocketFactory.setSocketFactory(new RMISocketFactory() {
+            public Socket createSocket(String host, int port) throws IOException {
+                Socket socket = new Socket();
+                try {
+                    socket.connect(new InetSocketAddress(host, port), millis);
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+                return socket;
+            }
+
+            public ServerSocket createServerSocket(int port) throws IOException {
+                return new ServerSocket(port);
+            }
+        });
+    }
+
+    // Plays throwaway games to completion outside the factory: a wrong and a right digit
+    // for every cell, plus sync queries and hints, through the same code clients reach.
+    // Also loads the puzzle catalog. These moves show up in the move counters.
+    static void warmUp(int games) throws RemoteException {
+        CallbackDispatcher dispatcher = new CallbackDispatcher();
+        ByteBuffer out = ByteBuffer.allocate(16);
+        try {
+            for (int i = 0; i < games; i++) {
+                Puzzle puzzle = PuzzleCatalog.shared().random();
+                byte[] solution = puzzle.solution();
+                SudokuImpl game = new SudokuImpl("warmup-" + i, puzzle, dispatcher);
+                game.unlimited();
+                int version = 0;
+                for (int cell = 0; cell < Board.CELLS; cell++) {
+                    int row = cell / Board.SIZE;
+                    int col = cell % Board.SIZE;
+                    if (cell % 9 == 0) {
+                        game.getHint();
+                    }
+                    game.move(row, col, solution[cell] % 9 + 1);
+                    out.clear();
+                    game.move(row, col, solution[cell], out);
+                    game.getChangesSince(version);
+                    version++;
+                }
+                game.cleanup();
+            }
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
 }
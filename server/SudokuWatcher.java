@@ -0,0 +1,10 @@
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+// Implemented by spectators. Updates for one session are conflated: a slow watcher
+// gets one payload covering everything it missed rather than every single move.
+public interface SudokuWatcher extends Remote {
+    // sync is a BoardSync payload: a delta from the last one delivered, or a full board
+    void boardChanged(String clientId, byte[] sync) throws RemoteException;
+    void sessionEnded(String clientId) throws RemoteException;
+}
@@ -0,0 +1,18 @@
+public enum Technique {
+    NAKED_SINGLE(Difficulty.EASY),
+    HIDDEN_SINGLE(Difficulty.EASY),
+    LOCKED_CANDIDATES(Difficulty.MEDIUM),
+    NAKED_PAIR(Difficulty.HARD),
+    HIDDEN_PAIR(Difficulty.HARD),
+    NAKED_TRIPLE(Difficulty.HARD);
+
+    private final Difficulty difficulty;
+
+    Technique(Difficulty difficulty) {
+        this.difficulty = difficulty;
+    }
+
+    public Difficulty difficulty() {
+        return difficulty;
+    }
+}